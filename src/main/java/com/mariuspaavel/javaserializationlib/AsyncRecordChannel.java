@@ -0,0 +1,208 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import java.io.*;
+
+/**
+*Writes and reads objects as records over an asynchronous channel.
+* The records have the same form as the ones of ObjectStreamWriter: the length as a 4 byte big endian int followed by the object. 
+* An object is serialized into a reused buffer and sent with as few channel writes as the channel allows, a record is read into a 
+* reused buffer and deserialized once it is complete. Like the channels themselves, at most one read and one write can be pending 
+* at a time, another one throws ReadPendingException or WritePendingException.
+* The results are delivered to a CompletionHandler or through a Future.
+*/
+public class AsyncRecordChannel {
+
+	/**
+	*The operations of the underlying channel.
+	*/
+	private static abstract class Target {
+		abstract void read(ByteBuffer buf, CompletionHandler<Integer, Void> handler);
+		abstract void write(ByteBuffer buf, CompletionHandler<Integer, Void> handler);
+	}
+
+	private final Manager mg;
+	private final Target target;
+	private final ByteOutput record = new ByteOutput();
+	private final ByteBuffer header = ByteBuffer.allocate(4);
+	private ByteBuffer body = ByteBuffer.allocate(256);
+	private final AtomicBoolean reading = new AtomicBoolean();
+	private final AtomicBoolean writing = new AtomicBoolean();
+	private volatile int maxRecordSize = Integer.MAX_VALUE;
+
+	//The position of the next read and the next write on a file channel.
+	private long readPosition;
+	private long writePosition;
+
+	/**
+	*Use a byte channel such as an AsynchronousSocketChannel.
+	*/
+	public AsyncRecordChannel(Manager mg, final AsynchronousByteChannel channel) {
+		this.mg = mg;
+		this.target = new Target() {
+			void read(ByteBuffer buf, CompletionHandler<Integer, Void> handler) {
+				channel.read(buf, null, handler);
+			}
+			void write(ByteBuffer buf, CompletionHandler<Integer, Void> handler) {
+				channel.write(buf, null, handler);
+			}
+		};
+	}
+
+	/**
+	*Use a file channel. Records are read and written sequentially, starting at the given position.
+	*/
+	public AsyncRecordChannel(Manager mg, final AsynchronousFileChannel channel, long position) {
+		this.mg = mg;
+		this.readPosition = position;
+		this.writePosition = position;
+		this.target = new Target() {
+			void read(ByteBuffer buf, final CompletionHandler<Integer, Void> handler) {
+				channel.read(buf, readPosition, null, new CompletionHandler<Integer, Void>() {
+					public void completed(Integer n, Void v) {
+						if(n > 0)readPosition += n;
+						handler.completed(n, v);
+					}
+					public void failed(Throwable e, Void v) {
+						handler.failed(e, v);
+					}
+				});
+			}
+			void write(ByteBuffer buf, final CompletionHandler<Integer, Void> handler) {
+				channel.write(buf, writePosition, null, new CompletionHandler<Integer, Void>() {
+					public void completed(Integer n, Void v) {
+						writePosition += n;
+						handler.completed(n, v);
+					}
+					public void failed(Throwable e, Void v) {
+						handler.failed(e, v);
+					}
+				});
+			}
+		};
+	}
+
+	/**
+	*Refuse records larger than maxRecordSize bytes, so that a corrupted length can't cause a huge allocation.
+	*/
+	public void setMaxRecordSize(int maxRecordSize) {
+		this.maxRecordSize = maxRecordSize;
+	}
+
+	/**
+	*Serialize an object and write it as one record.
+	* The handler receives the number of bytes of the record once all of it has been written.
+	*/
+	public <A> void write(Object o, final A attachment, final CompletionHandler<Integer, ? super A> handler) {
+		if(!writing.compareAndSet(false, true))throw new WritePendingException();
+		final ByteBuffer buf;
+		try {
+			record.reset();
+			record.writeInt(0);
+			mg.write(o, record);
+			record.patchInt(0, record.size() - 4);
+			buf = record.written();
+		}catch(RuntimeException e) {
+			writing.set(false);
+			throw e;
+		}
+		target.write(buf, new CompletionHandler<Integer, Void>() {
+			public void completed(Integer n, Void v) {
+				if(buf.hasRemaining()) {
+					target.write(buf, this);
+					return;
+				}
+				writing.set(false);
+				handler.completed(buf.limit(), attachment);
+			}
+			public void failed(Throwable e, Void v) {
+				writing.set(false);
+				handler.failed(e, attachment);
+			}
+		});
+	}
+
+	/**
+	*Serialize an object and write it as one record.
+	* @return A future of the number of bytes of the record.
+	*/
+	public Future<Integer> write(Object o) {
+		PendingResult<Integer> result = new PendingResult<Integer>();
+		write(o, null, result);
+		return result;
+	}
+
+	/**
+	*Read the next record and deserialize it.
+	* The handler fails with an EOFException when the channel ends, also if it ends between two records.
+	*/
+	public <A> void read(final A attachment, final CompletionHandler<Object, ? super A> handler) {
+		if(!reading.compareAndSet(false, true))throw new ReadPendingException();
+		header.clear();
+		fill(header, new CompletionHandler<Integer, Void>() {
+			public void completed(Integer n, Void v) {
+				int length = header.getInt(0);
+				if(length < 0 || length > maxRecordSize) {
+					failed(new SerializationException(String.format("Invalid record length %d", length)), null);
+					return;
+				}
+				if(body.capacity() < length)body = ByteBuffer.allocate(Math.max(length, body.capacity() * 2));
+				body.clear();
+				body.limit(length);
+				fill(body, new CompletionHandler<Integer, Void>() {
+					public void completed(Integer n, Void v) {
+						Object o;
+						try {
+							body.flip();
+							o = mg.read(body);
+							if(body.hasRemaining())throw new SerializationException("Record contains more data than the object");
+						}catch(RuntimeException e) {
+							failed(e, null);
+							return;
+						}
+						reading.set(false);
+						handler.completed(o, attachment);
+					}
+					public void failed(Throwable e, Void v) {
+						reading.set(false);
+						handler.failed(e, attachment);
+					}
+				});
+			}
+			public void failed(Throwable e, Void v) {
+				reading.set(false);
+				handler.failed(e, attachment);
+			}
+		});
+	}
+
+	/**
+	*Read the next record and deserialize it.
+	* @return A future of the deserialized object.
+	*/
+	public Future<Object> read() {
+		PendingResult<Object> result = new PendingResult<Object>();
+		read(null, result);
+		return result;
+	}
+
+	/**
+	*Read until the buffer is full.
+	*/
+	private void fill(final ByteBuffer buf, final CompletionHandler<Integer, Void> handler) {
+		target.read(buf, new CompletionHandler<Integer, Void>() {
+			public void completed(Integer n, Void v) {
+				if(n == -1)handler.failed(new EOFException(), null);
+				else if(buf.hasRemaining())target.read(buf, this);
+				else handler.completed(buf.limit(), null);
+			}
+			public void failed(Throwable e, Void v) {
+				handler.failed(e, null);
+			}
+		});
+	}
+}
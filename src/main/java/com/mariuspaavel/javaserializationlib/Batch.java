@@ -0,0 +1,152 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*Serializes and deserializes lists of objects in parallel on a fork/join pool.
+* The list is cut into chunks of CHUNK objects and a window of chunks is encoded at a time, each chunk into its own buffer. The 
+* buffers are then written to the stream in order, so the output is the same sequence of records that ObjectStreamWriter produces.
+* Only one window is kept in memory, the buffers are reused for the next window.
+*/
+class Batch {
+
+	/**
+	*The number of objects that one task encodes or decodes.
+	*/
+	static final int CHUNK = 1024;
+
+	private static ForkJoinPool defaultPool;
+
+	/**
+	*Get the pool that is used when the caller doesn't pass one. It is created on first use with one thread per core.
+	*/
+	static synchronized ForkJoinPool defaultPool() {
+		if(defaultPool == null)defaultPool = new ForkJoinPool();
+		return defaultPool;
+	}
+
+	static void write(Manager mg, List<?> objects, OutputStream stream, ForkJoinPool pool) throws IOException {
+		int window = pool.getParallelism() * 4;
+		ByteOutput[] chunks = new ByteOutput[window];
+		for(int i = 0; i < window; i++)chunks[i] = new ByteOutput();
+		int size = objects.size();
+		for(int start = 0; start < size; start += window * CHUNK) {
+			int end = (int)Math.min(size, (long)start + (long)window * CHUNK);
+			int count = (end - start + CHUNK - 1) / CHUNK;
+			pool.invoke(new EncodeTask(mg, objects, start, end, chunks, 0, count));
+			for(int i = 0; i < count; i++) {
+				chunks[i].writeTo(stream);
+			}
+		}
+	}
+
+	static List<Object> read(Manager mg, InputStream stream, ForkJoinPool pool) {
+		ObjectStreamReader reader = new ObjectStreamReader(mg, stream);
+		int window = pool.getParallelism() * 4 * CHUNK;
+		ArrayList<Object> result = new ArrayList<Object>();
+		ByteOutput data = new ByteOutput();
+		int[] offsets = new int[window + 1];
+		Object[] objects = new Object[window];
+		while(true) {
+			data.reset();
+			int count = 0;
+			while(count < window && reader.readRecord(data)) {
+				offsets[++count] = data.size();
+			}
+			if(count == 0)break;
+			pool.invoke(new DecodeTask(mg, data.array(), offsets, objects, 0, count));
+			for(int i = 0; i < count; i++) {
+				result.add(objects[i]);
+				objects[i] = null;
+			}
+			if(count < window)break;
+		}
+		return result;
+	}
+
+	/**
+	*Encodes the chunks from firstChunk to lastChunk, splitting the range in half until one chunk is left.
+	*/
+	private static class EncodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Manager mg;
+		private final List<?> objects;
+		private final int start;
+		private final int end;
+		private final ByteOutput[] chunks;
+		private final int firstChunk;
+		private final int lastChunk;
+
+		EncodeTask(Manager mg, List<?> objects, int start, int end, ByteOutput[] chunks, int firstChunk, int lastChunk) {
+			this.mg = mg;
+			this.objects = objects;
+			this.start = start;
+			this.end = end;
+			this.chunks = chunks;
+			this.firstChunk = firstChunk;
+			this.lastChunk = lastChunk;
+		}
+
+		protected void compute() {
+			if(lastChunk - firstChunk > 1) {
+				int middle = (firstChunk + lastChunk) >>> 1;
+				invokeAll(new EncodeTask(mg, objects, start, end, chunks, firstChunk, middle), 
+					new EncodeTask(mg, objects, start, end, chunks, middle, lastChunk));
+				return;
+			}
+			ByteOutput out = chunks[firstChunk];
+			out.reset();
+			int from = start + firstChunk * CHUNK;
+			int to = Math.min(end, from + CHUNK);
+			for(int i = from; i < to; i++) {
+				int header = out.size();
+				out.writeInt(0);
+				mg.write(objects.get(i), out);
+				out.patchInt(header, out.size() - header - 4);
+			}
+		}
+	}
+
+	/**
+	*Decodes the records from first to last, record i is stored in data from offsets[i] to offsets[i + 1].
+	*/
+	private static class DecodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Manager mg;
+		private final byte[] data;
+		private final int[] offsets;
+		private final Object[] objects;
+		private final int first;
+		private final int last;
+
+		DecodeTask(Manager mg, byte[] data, int[] offsets, Object[] objects, int first, int last) {
+			this.mg = mg;
+			this.data = data;
+			this.offsets = offsets;
+			this.objects = objects;
+			this.first = first;
+			this.last = last;
+		}
+
+		protected void compute() {
+			if(last - first > CHUNK) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new DecodeTask(mg, data, offsets, objects, first, middle), 
+					new DecodeTask(mg, data, offsets, objects, middle, last));
+				return;
+			}
+			for(int i = first; i < last; i++) {
+				ByteBuffer record = ByteBuffer.wrap(data, offsets[i], offsets[i + 1] - offsets[i]);
+				objects[i] = mg.read(record);
+				if(record.hasRemaining())throw new SerializationException("Record contains more data than the object");
+			}
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.io.*;
+
+/**
+*Receives large byte arrays and strings while an object is deserialized, instead of them being kept in memory.
+* Every byte[] and String value of at least THRESHOLD bytes is offered to the sink before it is read. If the sink accepts it, the
+* value is copied to the returned stream in chunks of 64 KiB and the field or list element it belongs to is set to null.
+* Values are offered in the order they appear in the stream. Strings are delivered as UTF-8 and are never offered when the string
+* dictionary is turned on, because later occurrences of a string refer back to it.
+*/
+public interface BlobSink {
+
+	/**
+	*The size in bytes from which values are offered to the sink.
+	*/
+	int THRESHOLD = 64 * 1024;
+
+	/**
+	*Called when a large value is about to be read.
+	* @param type byte[].class or String.class.
+	* @param length The number of bytes of the value.
+	* @return The stream that the value is written to and then closed, or null to deserialize the value as usual.
+	*/
+	OutputStream open(Class type, int length) throws IOException;
+}
@@ -0,0 +1,341 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import java.io.*;
+
+/**
+*The source that the Manager deserializes objects from.
+* All values are read in big endian order. Reads always return the requested number of bytes or throw an EOFException, 
+* a short read of the underlying stream never goes unnoticed.
+*/
+abstract class ByteInput {
+
+	abstract byte readByte() throws IOException;
+	abstract short readShort() throws IOException;
+	abstract int readInt() throws IOException;
+	abstract long readLong() throws IOException;
+	abstract void readFully(byte[] bytes, int off, int len) throws IOException;
+
+	/**
+	*Skip n bytes without reading them into memory.
+	*/
+	abstract void skip(long n) throws IOException;
+
+	/**
+	*The size of the chunks that large values are read in.
+	*/
+	static final int CHUNK = 64 * 1024;
+
+	private ByteBuffer chunk;
+	private byte[] text;
+
+	private byte[] text(int length) {
+		if(text == null || text.length < length)text = new byte[Math.max(length, 64)];
+		return text;
+	}
+
+	/**
+	*Read length bytes of UTF-8 text. Strings up to CHUNK bytes are read into a buffer that is reused for every string.
+	*/
+	String readUtf8(int length) throws IOException {
+		if(length < 0)throw new SerializationException(String.format("Invalid string length %d", length));
+		if(length > CHUNK)return Utf8.decode(readBytes(length, null), 0, length);
+		readFully(text(length), 0, length);
+		return Utf8.decode(text, 0, length);
+	}
+
+	/**
+	*Read a byte array of the given length, into the old array if it has the same length.
+	* A large array is read in chunks into an array that grows as the data arrives, so a corrupt length ends in an EOFException 
+	* instead of a huge allocation.
+	*/
+	byte[] readBytes(int length, byte[] old) throws IOException {
+		requireBlock(length, 1);
+		if(old != null && old.length == length) {
+			readFully(old, 0, length);
+			return old;
+		}
+		byte[] v = new byte[Math.min(length, CHUNK)];
+		readFully(v, 0, v.length);
+		while(v.length < length) {
+			int n = v.length;
+			v = Arrays.copyOf(v, (int)Math.min(length, 2L * n));
+			readFully(v, n, v.length - n);
+		}
+		return v;
+	}
+
+	/**
+	*Copy length bytes to a stream, CHUNK bytes at a time.
+	*/
+	void transferTo(int length, OutputStream stream) throws IOException {
+		byte[] b = text(CHUNK);
+		while(length > 0) {
+			int n = Math.min(length, CHUNK);
+			readFully(b, 0, n);
+			stream.write(b, 0, n);
+			length -= n;
+		}
+	}
+
+	/**
+	*A small buffer that array blocks are read through when the source isn't a ByteBuffer.
+	*/
+	private ByteBuffer chunk() {
+		if(chunk == null)chunk = ByteBuffer.allocate(4096);
+		chunk.clear();
+		return chunk;
+	}
+
+	/**
+	*Make sure that a block of count values of the given width can be read, before an array for it is allocated.
+	*/
+	void requireBlock(int count, int width) throws IOException {
+		if(count < 0 || count > Integer.MAX_VALUE / width)throw new SerializationException(String.format("Invalid array length %d", count));
+	}
+
+	void readBooleans(boolean[] v, int off, int len) throws IOException {
+		for(int i = off; i < off + len; i++)v[i] = readByte() != 0;
+	}
+
+	void readShorts(short[] v, int off, int len) throws IOException {
+		while(len > 0) {
+			int n = Math.min(len, 2048);
+			ByteBuffer c = chunk();
+			readFully(c.array(), 0, n * 2);
+			c.limit(n * 2);
+			c.asShortBuffer().get(v, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	void readInts(int[] v, int off, int len) throws IOException {
+		while(len > 0) {
+			int n = Math.min(len, 1024);
+			ByteBuffer c = chunk();
+			readFully(c.array(), 0, n * 4);
+			c.limit(n * 4);
+			c.asIntBuffer().get(v, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	void readLongs(long[] v, int off, int len) throws IOException {
+		while(len > 0) {
+			int n = Math.min(len, 512);
+			ByteBuffer c = chunk();
+			readFully(c.array(), 0, n * 8);
+			c.limit(n * 8);
+			c.asLongBuffer().get(v, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	void readFloats(float[] v, int off, int len) throws IOException {
+		while(len > 0) {
+			int n = Math.min(len, 1024);
+			ByteBuffer c = chunk();
+			readFully(c.array(), 0, n * 4);
+			c.limit(n * 4);
+			c.asFloatBuffer().get(v, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	void readDoubles(double[] v, int off, int len) throws IOException {
+		while(len > 0) {
+			int n = Math.min(len, 512);
+			ByteBuffer c = chunk();
+			readFully(c.array(), 0, n * 8);
+			c.limit(n * 8);
+			c.asDoubleBuffer().get(v, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	float readFloat() throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+
+	double readDouble() throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+
+	int readVarInt() throws IOException {
+		int v = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			byte b = readByte();
+			v |= (b & 0x7f) << shift;
+			if(b >= 0)return v;
+		}
+		throw new SerializationException("Malformed varint");
+	}
+
+	long readVarLong() throws IOException {
+		long v = 0;
+		for(int shift = 0; shift < 70; shift += 7) {
+			byte b = readByte();
+			v |= (long)(b & 0x7f) << shift;
+			if(b >= 0)return v;
+		}
+		throw new SerializationException("Malformed varint");
+	}
+
+	int readZigZagInt() throws IOException {
+		int v = readVarInt();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	long readZigZagLong() throws IOException {
+		long v = readVarLong();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	*Reads from a ByteBuffer starting at its current position and advances the position.
+	*/
+	static class BufferInput extends ByteInput {
+		private final ByteBuffer buf;
+		BufferInput(ByteBuffer buf) {
+			this.buf = buf;
+		}
+		private void require(int n) throws EOFException {
+			if(buf.remaining() < n)throw new EOFException("Buffer ended unexpectedly");
+		}
+		byte readByte() throws IOException {
+			require(1);
+			return buf.get();
+		}
+		short readShort() throws IOException {
+			require(2);
+			return buf.getShort();
+		}
+		int readInt() throws IOException {
+			require(4);
+			return buf.getInt();
+		}
+		long readLong() throws IOException {
+			require(8);
+			return buf.getLong();
+		}
+		void readFully(byte[] bytes, int off, int len) throws IOException {
+			require(len);
+			buf.get(bytes, off, len);
+		}
+		void skip(long n) throws IOException {
+			if(n > buf.remaining())throw new EOFException("Buffer ended unexpectedly");
+			buf.position(buf.position() + (int)n);
+		}
+		byte[] readBytes(int length, byte[] old) throws IOException {
+			//The length has been checked against the buffer, so the array can be allocated at once
+			requireBlock(length, 1);
+			byte[] v = old != null && old.length == length ? old : new byte[length];
+			buf.get(v, 0, length);
+			return v;
+		}
+		String readUtf8(int length) throws IOException {
+			if(!buf.hasArray())return super.readUtf8(length);
+			if(length < 0)throw new SerializationException(String.format("Invalid string length %d", length));
+			require(length);
+			//Decode straight from the backing array
+			String s = Utf8.decode(buf.array(), buf.arrayOffset() + buf.position(), length);
+			buf.position(buf.position() + length);
+			return s;
+		}
+		int position() {
+			return buf.position();
+		}
+		void position(int position) {
+			buf.position(position);
+		}
+		void requireBlock(int count, int width) throws IOException {
+			super.requireBlock(count, width);
+			require(count * width);
+		}
+		void readShorts(short[] v, int off, int len) throws IOException {
+			require(len * 2);
+			buf.asShortBuffer().get(v, off, len);
+			buf.position(buf.position() + len * 2);
+		}
+		void readInts(int[] v, int off, int len) throws IOException {
+			require(len * 4);
+			buf.asIntBuffer().get(v, off, len);
+			buf.position(buf.position() + len * 4);
+		}
+		void readLongs(long[] v, int off, int len) throws IOException {
+			require(len * 8);
+			buf.asLongBuffer().get(v, off, len);
+			buf.position(buf.position() + len * 8);
+		}
+		void readFloats(float[] v, int off, int len) throws IOException {
+			require(len * 4);
+			buf.asFloatBuffer().get(v, off, len);
+			buf.position(buf.position() + len * 4);
+		}
+		void readDoubles(double[] v, int off, int len) throws IOException {
+			require(len * 8);
+			buf.asDoubleBuffer().get(v, off, len);
+			buf.position(buf.position() + len * 8);
+		}
+	}
+
+	/**
+	*Reads from an InputStream.
+	* Only the bytes that belong to the deserialized object are consumed, the rest of the stream is left untouched.
+	*/
+	static class StreamInput extends ByteInput {
+		private final InputStream stream;
+		private final byte[] scratch = new byte[8];
+		StreamInput(InputStream stream) {
+			this.stream = stream;
+		}
+		byte readByte() throws IOException {
+			int b = stream.read();
+			if(b == -1)throw new EOFException("InputStream ended unexpectedly");
+			return (byte)b;
+		}
+		short readShort() throws IOException {
+			readFully(scratch, 0, 2);
+			return (short)(((scratch[0] & 0xff) << 8) | (scratch[1] & 0xff));
+		}
+		int readInt() throws IOException {
+			readFully(scratch, 0, 4);
+			return ((scratch[0] & 0xff) << 24) | ((scratch[1] & 0xff) << 16) | ((scratch[2] & 0xff) << 8) | (scratch[3] & 0xff);
+		}
+		long readLong() throws IOException {
+			readFully(scratch, 0, 8);
+			long v = 0;
+			for(int i = 0; i < 8; i++)v = (v << 8) | (scratch[i] & 0xff);
+			return v;
+		}
+		void skip(long n) throws IOException {
+			while(n > 0) {
+				long skipped = stream.skip(n);
+				if(skipped <= 0) {
+					readByte();
+					skipped = 1;
+				}
+				n -= skipped;
+			}
+		}
+		void readFully(byte[] bytes, int off, int len) throws IOException {
+			while(len > 0) {
+				int n = stream.read(bytes, off, len);
+				if(n == -1)throw new EOFException("InputStream ended unexpectedly");
+				off += n;
+				len -= n;
+			}
+		}
+	}
+}
@@ -0,0 +1,357 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*A reusable output buffer that the Manager serializes objects into.
+* The buffer grows when it runs out of space and keeps its capacity after reset(), so serializing many objects into the same
+* ByteOutput does not allocate anything once the buffer has reached its working size. All values are written in big endian order.
+*/
+public class ByteOutput {
+
+	/**
+	*The size that a ByteOutput with a stream doesn't grow beyond, it passes the written bytes on to the stream instead.
+	*/
+	static final int FLUSH_SIZE = 64 * 1024;
+
+	//Some VMs reserve header words in arrays, larger arrays can fail even when there is enough memory
+	private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+	private ByteBuffer buf;
+	private final boolean growable;
+	private final OutputStream stream;
+
+	/**
+	*Create an empty buffer with the default initial capacity.
+	*/
+	public ByteOutput() {
+		this(256);
+	}
+
+	/**
+	*Create an empty buffer.
+	* @param initialCapacity The number of bytes the buffer can hold before it needs to grow.
+	*/
+	public ByteOutput(int initialCapacity) {
+		buf = ByteBuffer.allocate(Math.max(initialCapacity, 16));
+		growable = true;
+		stream = null;
+	}
+
+	/**
+	*Create a buffer that writes through to a stream once it holds FLUSH_SIZE bytes, so that large values are passed on in 
+	* chunks instead of being collected in one huge buffer. Call writeTo with the same stream to write the rest.
+	* Lengths can't be patched in such a buffer.
+	*/
+	ByteOutput(OutputStream stream) {
+		buf = ByteBuffer.allocate(256);
+		growable = true;
+		this.stream = stream;
+	}
+
+	/**
+	*Write directly into a caller-supplied buffer starting at its current position.
+	* The buffer does not grow, a BufferOverflowException is thrown when it is full.
+	*/
+	ByteOutput(ByteBuffer target) {
+		buf = target;
+		growable = false;
+		stream = null;
+	}
+
+	void ensure(int n) {
+		if(buf.remaining() >= n || !growable)return;
+		if(stream != null && buf.position() > 0 && buf.position() + n > FLUSH_SIZE) {
+			flush();
+			if(buf.remaining() >= n)return;
+		}
+		int required = buf.position() + n;
+		if(required < 0 || required > MAX_CAPACITY)throw new SerializationException(String.format("Can't grow the buffer past %d bytes", MAX_CAPACITY));
+		long capacity = Math.max(buf.capacity(), 1);
+		while(capacity < required)capacity *= 2;
+		capacity = Math.min(capacity, MAX_CAPACITY);
+		ByteBuffer grown = ByteBuffer.allocate((int)capacity);
+		buf.flip();
+		grown.put(buf);
+		buf = grown;
+	}
+
+	public void writeBoolean(boolean v) {
+		ensure(1);
+		buf.put(v ? (byte)1 : (byte)0);
+	}
+
+	public void writeByte(byte v) {
+		ensure(1);
+		buf.put(v);
+	}
+
+	public void writeShort(short v) {
+		ensure(2);
+		buf.putShort(v);
+	}
+
+	public void writeInt(int v) {
+		ensure(4);
+		buf.putInt(v);
+	}
+
+	public void writeLong(long v) {
+		ensure(8);
+		buf.putLong(v);
+	}
+
+	public void writeFloat(float v) {
+		ensure(4);
+		buf.putFloat(v);
+	}
+
+	public void writeDouble(double v) {
+		ensure(8);
+		buf.putDouble(v);
+	}
+
+	/**
+	*Write an unsigned integer using 1 to 5 bytes, 7 bits per byte, least significant group first.
+	*/
+	public void writeVarInt(int v) {
+		ensure(5);
+		while((v & ~0x7f) != 0) {
+			buf.put((byte)((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		buf.put((byte)v);
+	}
+
+	/**
+	*Write an unsigned long using 1 to 10 bytes, 7 bits per byte, least significant group first.
+	*/
+	public void writeVarLong(long v) {
+		ensure(10);
+		while((v & ~0x7fL) != 0) {
+			buf.put((byte)((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		buf.put((byte)v);
+	}
+
+	/**
+	*Write a signed integer as a zigzag varint, so that numbers close to zero take few bytes regardless of their sign.
+	*/
+	public void writeZigZagInt(int v) {
+		writeVarInt((v << 1) ^ (v >> 31));
+	}
+
+	/**
+	*Write a signed long as a zigzag varint.
+	*/
+	public void writeZigZagLong(long v) {
+		writeVarLong((v << 1) ^ (v >> 63));
+	}
+
+	public void write(byte[] bytes) {
+		write(bytes, 0, bytes.length);
+	}
+
+	public void write(byte[] bytes, int off, int len) {
+		if(stream != null && len > FLUSH_SIZE) {
+			//Large arrays go to the stream without being copied
+			flush();
+			try {
+				stream.write(bytes, off, len);
+			}catch(IOException e) {
+				e.printStackTrace();
+				throw new SerializationException(e.getMessage());
+			}
+			return;
+		}
+		ensure(len);
+		buf.put(bytes, off, len);
+	}
+
+	/**
+	*Write the UTF-8 form of a string directly into the buffer.
+	* @param length The number of bytes the string takes, as counted by Utf8.length.
+	*/
+	void writeUtf8(String s, int length) {
+		if(stream != null && length > FLUSH_SIZE) {
+			writeUtf8Chunks(s);
+			return;
+		}
+		ensure(length);
+		if(!buf.hasArray()) {
+			byte[] bytes = new byte[length];
+			Utf8.encode(s, bytes, 0);
+			buf.put(bytes);
+			return;
+		}
+		if(buf.remaining() < length)throw new BufferOverflowException();
+		Utf8.encode(s, buf.array(), buf.arrayOffset() + buf.position());
+		buf.position(buf.position() + length);
+	}
+
+	/**
+	*Encode a large string one buffer at a time, passing every full buffer on to the stream.
+	*/
+	private void writeUtf8Chunks(String s) {
+		int from = 0;
+		while(from < s.length()) {
+			flush();
+			ensure(FLUSH_SIZE);
+			//A char takes at most 3 bytes, a surrogate pair 4
+			int to = (int)Math.min(s.length(), (long)from + buf.remaining() / 3);
+			if(to < s.length() && Character.isHighSurrogate(s.charAt(to - 1)))to--;
+			int end = Utf8.encode(s, from, to, buf.array(), buf.arrayOffset() + buf.position());
+			buf.position(end - buf.arrayOffset());
+			from = to;
+		}
+	}
+
+	/**
+	*Pass the buffered bytes on to the stream.
+	*/
+	private void flush() {
+		if(buf.position() == 0)return;
+		try {
+			stream.write(buf.array(), buf.arrayOffset(), buf.position());
+		}catch(IOException e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
+		}
+		buf.clear();
+	}
+
+	/**
+	*Write a block of booleans, one byte each.
+	*/
+	public void writeBooleans(boolean[] v, int off, int len) {
+		ensure(len);
+		for(int i = off; i < off + len; i++)buf.put(v[i] ? (byte)1 : (byte)0);
+	}
+
+	/**
+	*Write a block of shorts with one bulk copy.
+	*/
+	public void writeShorts(short[] v, int off, int len) {
+		ensure(blockSize(len, 2));
+		buf.asShortBuffer().put(v, off, len);
+		buf.position(buf.position() + len * 2);
+	}
+
+	/**
+	*Write a block of ints with one bulk copy.
+	*/
+	public void writeInts(int[] v, int off, int len) {
+		ensure(blockSize(len, 4));
+		buf.asIntBuffer().put(v, off, len);
+		buf.position(buf.position() + len * 4);
+	}
+
+	/**
+	*Write a block of longs with one bulk copy.
+	*/
+	public void writeLongs(long[] v, int off, int len) {
+		ensure(blockSize(len, 8));
+		buf.asLongBuffer().put(v, off, len);
+		buf.position(buf.position() + len * 8);
+	}
+
+	/**
+	*Write a block of floats with one bulk copy.
+	*/
+	public void writeFloats(float[] v, int off, int len) {
+		ensure(blockSize(len, 4));
+		buf.asFloatBuffer().put(v, off, len);
+		buf.position(buf.position() + len * 4);
+	}
+
+	/**
+	*Write a block of doubles with one bulk copy.
+	*/
+	public void writeDoubles(double[] v, int off, int len) {
+		ensure(blockSize(len, 8));
+		buf.asDoubleBuffer().put(v, off, len);
+		buf.position(buf.position() + len * 8);
+	}
+
+	private static int blockSize(int len, int width) {
+		if(len > Integer.MAX_VALUE / width)throw new SerializationException("Array is too large to be serialized");
+		return len * width;
+	}
+
+	/**
+	*Overwrite 4 bytes that have already been written, used to fill in a length once it is known.
+	*/
+	void patchInt(int position, int v) {
+		if(stream != null)throw new IllegalStateException("Lengths can't be patched in a ByteOutput that writes through to a stream");
+		buf.putInt(position, v);
+	}
+
+	/**
+	*Write the output of a deflater until it has finished.
+	*/
+	void deflate(Deflater deflater) {
+		while(!deflater.finished()) {
+			ensure(256);
+			if(!buf.hasRemaining())throw new BufferOverflowException();
+			int n = deflater.deflate(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+			buf.position(buf.position() + n);
+		}
+	}
+
+	/**
+	*Discard everything that was written after the first size bytes.
+	*/
+	void truncate(int size) {
+		buf.position(size);
+	}
+
+	/**
+	*Get the written bytes as a buffer that shares its contents with this ByteOutput.
+	*/
+	ByteBuffer written() {
+		ByteBuffer written = buf.duplicate();
+		written.flip();
+		return written;
+	}
+
+	/**
+	*Get the array that backs the buffer, the written bytes start at index 0.
+	*/
+	byte[] array() {
+		return buf.array();
+	}
+
+	/**
+	*Get the number of bytes written since the buffer was created or reset, not counting the bytes already passed on to a stream.
+	*/
+	public int size() {
+		return buf.position();
+	}
+
+	/**
+	*Discard the contents of the buffer but keep its capacity.
+	*/
+	public void reset() {
+		buf.clear();
+	}
+
+	/**
+	*Copy the contents of the buffer to a new byte array.
+	*/
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf.array(), buf.position());
+	}
+
+	/**
+	*Write the contents of the buffer to an output stream.
+	*/
+	public void writeTo(OutputStream stream) throws IOException {
+		stream.write(buf.array(), buf.arrayOffset(), buf.position());
+	}
+}
@@ -0,0 +1,318 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+import java.nio.charset.Charset;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*The serialization plan of a registrated class.
+* It is built once when the Manager locks its initialization and contains a codec for every @S field in alphabetical order.
+*/
+class ClassCodec extends TypeCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	final FieldCodec[] fields;
+	final boolean dbObject;
+	private final MethodHandle constructor;
+	private GeneratedCodec generated;
+	private final HashMap<String, Integer> fieldIndex = new HashMap<String, Integer>();
+	private final HashMap<Integer, Integer> tagIndex = new HashMap<Integer, Integer>();
+
+	/**
+	*The keys that introduce the fields in the tagged format: the field id shifted left by one, or 0 if the field name follows.
+	* The lowest bit tells whether the value is a serialized object, so that a reader that doesn't know the field can still keep
+	* back references in order.
+	*/
+	private final int[] keys;
+	private final byte[][] names;
+
+	/**
+	*The offsets of the fields that come before the first variable sized field, relative to the start of the first field.
+	*/
+	final int[] fixedOffsets;
+
+	ClassCodec(int id, Class type, TreeMap<String, Field> classFields, GeneratedCodec generated, Registry r) {
+		super(id, type, r);
+		this.dbObject = DBObject.class.isAssignableFrom(type);
+		fields = new FieldCodec[classFields.size()];
+		int i = 0;
+		keys = new int[fields.length];
+		names = new byte[fields.length][];
+		for(Field f : classFields.values()) {
+			fieldIndex.put(f.getName(), i);
+			FieldCodec codec = FieldCodec.create(f, r);
+			if(codec.tag != 0 && tagIndex.put(codec.tag, i) != null)throw new RuntimeException(String.format("Class %s has more than one field with the id %d", type.getName(), codec.tag));
+			keys[i] = codec.tag << 1 | (codec instanceof FieldCodec.ObjectField ? 1 : 0);
+			names[i] = codec.tag != 0 ? null : codec.name.getBytes(UTF8);
+			fields[i++] = codec;
+		}
+		constructor = findConstructor(type);
+		if(generated != null && !generated.fields().equals(GeneratedCodec.signature(fields))) {
+			if(r.m.d)r.m.ds.println(String.format("The generated codec of %s is out of date, using reflection", type.getName()));
+			generated = null;
+		}
+		this.generated = generated;
+
+		int known = 0;
+		while(known < fields.length && (known == 0 || fields[known - 1].width() != -1))known++;
+		fixedOffsets = new int[known];
+		for(i = 1; i < known; i++) {
+			fixedOffsets[i] = fixedOffsets[i - 1] + fields[i - 1].width();
+		}
+	}
+
+	/**
+	*Resolve the field codecs that depend on the codecs of other classes.
+	*/
+	void link() {
+		for(int i = 0; i < fields.length; i++) {
+			fields[i] = fields[i].link();
+			//Generated codecs always write class ids
+			if(fields[i] instanceof FieldCodec.MonoField || fields[i] instanceof FieldCodec.MonoListField)generated = null;
+		}
+	}
+
+	/**
+	*Get the position of a field in the alphabetical field order, or -1 if the class has no @S field with that name.
+	*/
+	int fieldIndex(String name) {
+		Integer index = fieldIndex.get(name);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	*Read the name of a field if the key doesn't contain an id, and get the index of the field, or -1 if the class doesn't have it.
+	* A field that has changed between a primitive and an object is treated as unknown, so that its value is skipped.
+	*/
+	int fieldIndex(int key, ByteInput in) throws IOException {
+		Integer index;
+		if(key >>> 1 == 0) {
+			byte[] name = new byte[r.readLength(in)];
+			in.readFully(name, 0, name.length);
+			index = fieldIndex.get(new String(name, UTF8));
+			//A field that has an id is never written by name
+			if(index != null && fields[index].tag != 0)index = null;
+		}
+		else index = tagIndex.get(key >>> 1);
+		if(index == null)return -1;
+		if((keys[index] & 1) != (key & 1)) {
+			if(r.m.d)r.m.ds.println(String.format("Field %s of class %s has changed between a primitive and an object, skipping it", fields[index].name, type.getName()));
+			return -1;
+		}
+		return index;
+	}
+
+	boolean tracked() {
+		return true;
+	}
+
+	private static MethodHandle findConstructor(Class type) {
+		try {
+			Constructor con = type.getDeclaredConstructor();
+			con.setAccessible(true);
+			return MethodHandles.lookup().unreflectConstructor(con).asType(MethodType.methodType(Object.class));
+		}catch(NoSuchMethodException | IllegalAccessException e) {
+			//The class can still be serialized, it just can't be deserialized.
+			return null;
+		}
+	}
+
+	/**
+	*Create a new empty instance of the class using its no-argument constructor.
+	*/
+	Object newInstance() throws Throwable {
+		if(generated != null)return generated.newInstance();
+		if(constructor == null)throw new SerializationException(String.format("Class %s doesn't have a no-argument constructor", type.getName()));
+		return (Object)constructor.invokeExact();
+	}
+
+	/**
+	*Write the database id and all the @S fields of the object.
+	*/
+	void write(Object o, Encoder e) throws Throwable {
+		if(dbObject)r.writeSignedInt(((DBObject)o).getMeta().getId(), e.out);
+		if(r.tagged) {
+			writeTagged(o, e);
+			return;
+		}
+		if(generated != null) {
+			generated.write(o, e.writer());
+			return;
+		}
+		for(FieldCodec f : fields) {
+			f.write(o, e);
+		}
+	}
+
+	/**
+	*Write the number of fields and then every field as its key, the length of its value and the value.
+	* The length is written as a fixed 4 byte int and filled in once the value has been written.
+	*/
+	private void writeTagged(Object o, Encoder e) throws Throwable {
+		ByteOutput out = e.out;
+		r.writeLength(fields.length, out);
+		for(int i = 0; i < fields.length; i++) {
+			r.writeLength(keys[i], out);
+			if(names[i] != null) {
+				r.writeLength(names[i].length, out);
+				out.write(names[i]);
+			}
+			int lengthPosition = out.size();
+			out.writeInt(0);
+			fields[i].write(o, e);
+			out.patchInt(lengthPosition, out.size() - lengthPosition - 4);
+		}
+	}
+
+	/**
+	*Read the fields of the tagged format. Fields that this class doesn't have are skipped, fields that weren't written keep the 
+	* values the constructor gave them.
+	*/
+	private void readTagged(Decoder d, Object o, boolean[] mask) throws Throwable {
+		int count = r.readLength(d.in);
+		for(int i = 0; i < count; i++) {
+			int key = r.readLength(d.in);
+			int index = fieldIndex(key, d.in);
+			int length = d.in.readInt();
+			if(index == -1)skipUnknown(d, key, length);
+			else if(fields[index].width() != -1 && fields[index].width() != length)skipChanged(d, index, length);
+			else if(mask == null || mask[index])fields[index].read(d, o);
+			else if(r.referenceTracking)fields[index].skip(d);
+			else d.in.skip(length);
+		}
+	}
+
+	/**
+	*Skip a primitive field whose value has a different width than this class expects, its type has changed since it was written.
+	*/
+	private void skipChanged(Decoder d, int index, int length) throws IOException {
+		if(r.m.d)r.m.ds.println(String.format("Skipping field %s of class %s, expected %d bytes but found %d", fields[index].name, type.getName(), fields[index].width(), length));
+		d.in.skip(length);
+	}
+
+	private void skipUnknown(Decoder d, int key, int length) throws Throwable {
+		if(r.m.d)r.m.ds.println(String.format("Skipping an unknown field of class %s", type.getName()));
+		//Objects inside the field may be the target of later back references
+		if(r.referenceTracking && (key & 1) == 1)r.skipObject(d);
+		else d.in.skip(length);
+	}
+
+	/**
+	*Create a new instance of the class and read its database id and @S fields.
+	*/
+	Object read(Decoder d) throws Throwable {
+		return readFields(d, instance(d, null), null);
+	}
+
+	/**
+	*Read the database id and @S fields into the old object if it is an instance of this class, otherwise into a new instance.
+	*/
+	Object readInto(Decoder d, Object old) throws Throwable {
+		return readFields(d, instance(d, old), null);
+	}
+
+	/**
+	*Create a new instance of the class and read only the @S fields that are set in the mask, the rest are skipped.
+	*/
+	Object read(Decoder d, boolean[] mask) throws Throwable {
+		return readFields(d, instance(d, null), mask);
+	}
+
+	/**
+	*Get the object that is read into: the old object if it can be reused, a pooled instance or a new one.
+	*/
+	private Object instance(Decoder d, Object old) throws Throwable {
+		if(old != null && old.getClass() == type)return old;
+		if(d.pool != null) {
+			Object pooled = d.pool.acquire(type);
+			if(pooled != null)return pooled;
+		}
+		return newInstance();
+	}
+
+	private Object readFields(Decoder d, Object o, boolean[] mask) throws Throwable {
+		d.track(o);
+		if(dbObject)((DBObject)o).getMeta().id = r.readSignedInt(d.in);
+		if(r.tagged) {
+			readTagged(d, o, mask);
+			return o;
+		}
+		if(generated != null && mask == null) {
+			generated.read(o, d.reader());
+			return o;
+		}
+		for(int i = 0; i < fields.length; i++) {
+			if(mask == null || mask[i])fields[i].read(d, o);
+			else fields[i].skip(d);
+		}
+		return o;
+	}
+
+	/**
+	*Write the fields of o whose serialized form differs from the same field of base: the number of fields, a bitmap with one bit
+	* per field in the alphabetical field order that is set if the field changed, and the values of the changed fields.
+	*/
+	void writeDelta(Object base, Object o, Encoder e) throws Throwable {
+		e.reference(o);
+		if(dbObject)r.writeSignedInt(((DBObject)o).getMeta().getId(), e.out);
+		byte[] bitmap = new byte[(fields.length + 7) / 8];
+		ByteOutput before = new ByteOutput();
+		ByteOutput after = new ByteOutput();
+		for(int i = 0; i < fields.length; i++) {
+			before.reset();
+			after.reset();
+			fields[i].write(base, new Encoder(r, before));
+			fields[i].write(o, new Encoder(r, after));
+			if(!before.written().equals(after.written()))bitmap[i >> 3] |= 1 << (i & 7);
+		}
+		r.writeLength(fields.length, e.out);
+		e.out.write(bitmap);
+		for(int i = 0; i < fields.length; i++) {
+			if((bitmap[i >> 3] & 1 << (i & 7)) != 0)fields[i].write(o, e);
+		}
+	}
+
+	/**
+	*Read a delta written by writeDelta and assign the changed fields to o, the other fields keep their values.
+	*/
+	void readDelta(Decoder d, Object o) throws Throwable {
+		d.track(o);
+		if(dbObject)((DBObject)o).getMeta().id = r.readSignedInt(d.in);
+		int count = r.readLength(d.in);
+		if(count != fields.length)throw new SerializationException(String.format("The delta has %d fields but class %s has %d", count, type.getName(), fields.length));
+		byte[] bitmap = new byte[(count + 7) / 8];
+		d.in.readFully(bitmap, 0, bitmap.length);
+		for(int i = 0; i < fields.length; i++) {
+			if((bitmap[i >> 3] & 1 << (i & 7)) != 0)fields[i].read(d, o);
+		}
+	}
+
+	void skip(Decoder d) throws Throwable {
+		//With reference tracking the object may be referred to later, so it has to be read
+		if(r.referenceTracking) {
+			read(d);
+			return;
+		}
+		if(dbObject)r.readSignedInt(d.in);
+		if(r.tagged) {
+			int count = r.readLength(d.in);
+			for(int i = 0; i < count; i++) {
+				int key = r.readLength(d.in);
+				if(key >>> 1 == 0)d.in.skip(r.readLength(d.in));
+				d.in.skip(d.in.readInt());
+			}
+			return;
+		}
+		for(FieldCodec f : fields) {
+			f.skip(d);
+		}
+	}
+}
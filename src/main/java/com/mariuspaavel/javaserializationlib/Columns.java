@@ -0,0 +1,305 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*Serializes a list of objects of one registrated class column by column.
+* The batch starts with the class id, the number of rows and the number of columns. Then every @S field follows as one column
+* in the alphabetical field order, preceded by the database ids if the class is a DBObject. A column is an encoding byte,
+* the length of the column data as a fixed 4 byte int and the data, so a reader can jump over the columns it doesn't need.
+* Every primitive column is encoded in each of the encodings that apply to it and the smallest one is kept:
+* PLAIN writes the values at their full width, VARINT as zigzag varints, DELTA as zigzag varints of the difference to the
+* previous value and RUN_LENGTH as runs of a full width value and a varint count. Object columns are written as serialized
+* objects, or with DICTIONARY when they hold only strings and wrappers of which at most half are distinct: the distinct values
+* are written once and every row refers to one by its varint index.
+* With reference tracking the rows themselves are the first objects of the batch, so fields that refer to other rows keep
+* pointing to the same instances.
+*/
+class Columns {
+
+	static final byte PLAIN = 0;
+	static final byte VARINT = 1;
+	static final byte DELTA = 2;
+	static final byte RUN_LENGTH = 3;
+	static final byte DICTIONARY = 4;
+
+	private static final int BOOLEAN = 0, BYTE = 1, SHORT = 2, INT = 3, LONG = 4, FLOAT = 5, DOUBLE = 6, OBJECT = 7;
+	private static final int[] WIDTH = {1, 1, 2, 4, 8, 4, 8};
+
+	static void write(Registry r, ClassCodec codec, List<?> rows, Encoder e) throws Throwable {
+		ByteOutput out = e.out;
+		for(int i = 0; i < rows.size(); i++) {
+			Object o = rows.get(i);
+			if(o == null || o.getClass() != codec.type)throw new RuntimeException(String.format("Row %d is not an instance of %s", i, codec.type.getName()));
+			e.reference(o);
+		}
+		r.writeLength(codec.id, out);
+		r.writeLength(rows.size(), out);
+		r.writeLength(codec.fields.length, out);
+		ByteOutput best = new ByteOutput();
+		ByteOutput trial = new ByteOutput();
+		if(codec.dbObject) {
+			long[] ids = new long[rows.size()];
+			for(int i = 0; i < ids.length; i++)ids[i] = ((DBObject)rows.get(i)).getMeta().getId();
+			writePrimitives(ids, INT, out, best, trial);
+		}
+		for(FieldCodec f : codec.fields) {
+			int kind = kind(f);
+			if(kind == OBJECT)writeObjects(r, f, rows, e);
+			else writePrimitives(values(f, kind, rows), kind, out, best, trial);
+		}
+	}
+
+	static List<Object> read(Registry r, Decoder d, Projection projection) throws Throwable {
+		int serialid = r.readLength(d.in);
+		TypeCodec c = r.codecFor(serialid);
+		if(!(c instanceof ClassCodec))throw new SerializationException(String.format("Class id %d isn't a registrated class", serialid));
+		ClassCodec codec = (ClassCodec)c;
+		if(r.m.d)r.m.ds.println(String.format("Deserializing columns of class %s", codec.type.getName()));
+		int count = r.readLength(d.in);
+		if(count < 0)throw new SerializationException(String.format("Invalid row count %d", count));
+		int columns = r.readLength(d.in);
+		if(columns != codec.fields.length)throw new SerializationException(String.format("Expected %d columns for class %s but found %d", codec.fields.length, codec.type.getName(), columns));
+		boolean[] mask = projection == null ? null : projection.mask(codec);
+		//The rows are created as the column data reaches them, so a corrupt count fails on the data instead of filling the memory
+		ArrayList<Object> rows = new ArrayList<Object>(Math.min(count, 1 << 16));
+		if(codec.dbObject)readPrimitives(null, INT, d, rows, count, codec);
+		for(int i = 0; i < codec.fields.length; i++) {
+			FieldCodec f = codec.fields[i];
+			int kind = kind(f);
+			if(mask == null || mask[i]) {
+				if(kind == OBJECT)readObjects(r, f, d, rows, count, codec);
+				else readPrimitives(f, kind, d, rows, count, codec);
+			}
+			//Objects and strings inside the column may be the target of later back references or dictionary indexes
+			else if(kind == OBJECT && (r.referenceTracking || r.stringDictionary))readObjects(r, null, d, rows, count, codec);
+			else {
+				d.in.readByte();
+				d.in.skip(d.in.readInt());
+			}
+		}
+		row(rows, count - 1, codec, d);
+		return rows;
+	}
+
+	/**
+	*Get row i, creating the rows up to it first. Row -1 only returns null, so that all rows of an empty batch can be created.
+	*/
+	private static Object row(List<Object> rows, int i, ClassCodec codec, Decoder d) throws Throwable {
+		while(rows.size() <= i) {
+			Object o = codec.newInstance();
+			d.track(o);
+			rows.add(o);
+		}
+		return i < 0 ? null : rows.get(i);
+	}
+
+	private static int kind(FieldCodec f) {
+		Class c = f.field.getType();
+		if(c == boolean.class)return BOOLEAN;
+		if(c == byte.class)return BYTE;
+		if(c == short.class)return SHORT;
+		if(c == int.class)return INT;
+		if(c == long.class)return LONG;
+		if(c == float.class)return FLOAT;
+		if(c == double.class)return DOUBLE;
+		return OBJECT;
+	}
+
+	/**
+	*Get the values of a primitive field of every row, floating point values as their raw bits.
+	*/
+	private static long[] values(FieldCodec f, int kind, List<?> rows) throws Throwable {
+		long[] v = new long[rows.size()];
+		for(int i = 0; i < v.length; i++) {
+			Object o = rows.get(i);
+			switch(kind) {
+				case BOOLEAN: v[i] = (boolean)f.getter.invokeExact(o) ? 1 : 0; break;
+				case BYTE: v[i] = (byte)f.getter.invokeExact(o); break;
+				case SHORT: v[i] = (short)f.getter.invokeExact(o); break;
+				case INT: v[i] = (int)f.getter.invokeExact(o); break;
+				case LONG: v[i] = (long)f.getter.invokeExact(o); break;
+				case FLOAT: v[i] = Float.floatToRawIntBits((float)f.getter.invokeExact(o)); break;
+				default: v[i] = Double.doubleToRawLongBits((double)f.getter.invokeExact(o)); break;
+			}
+		}
+		return v;
+	}
+
+	private static void set(FieldCodec f, int kind, Object o, long v) throws Throwable {
+		switch(kind) {
+			case BOOLEAN: f.setter.invokeExact(o, v != 0); break;
+			case BYTE: f.setter.invokeExact(o, (byte)v); break;
+			case SHORT: f.setter.invokeExact(o, (short)v); break;
+			case INT: f.setter.invokeExact(o, (int)v); break;
+			case LONG: f.setter.invokeExact(o, v); break;
+			case FLOAT: f.setter.invokeExact(o, Float.intBitsToFloat((int)v)); break;
+			default: f.setter.invokeExact(o, Double.longBitsToDouble(v)); break;
+		}
+	}
+
+	/**
+	*Encode a primitive column in every encoding that applies to it and write the smallest one.
+	*/
+	private static void writePrimitives(long[] v, int kind, ByteOutput out, ByteOutput best, ByteOutput trial) {
+		boolean integral = kind != FLOAT && kind != DOUBLE;
+		byte bestEncoding = PLAIN;
+		best.reset();
+		encode(v, kind, PLAIN, best);
+		for(byte encoding = VARINT; encoding <= RUN_LENGTH; encoding++) {
+			if(!integral && encoding != RUN_LENGTH)continue;
+			trial.reset();
+			encode(v, kind, encoding, trial);
+			if(trial.size() < best.size()) {
+				ByteOutput t = best;
+				best = trial;
+				trial = t;
+				bestEncoding = encoding;
+			}
+		}
+		out.writeByte(bestEncoding);
+		out.writeInt(best.size());
+		out.write(best.array(), 0, best.size());
+	}
+
+	private static void encode(long[] v, int kind, byte encoding, ByteOutput out) {
+		switch(encoding) {
+			case PLAIN:
+				for(int i = 0; i < v.length; i++)writePlain(v[i], kind, out);
+				break;
+			case VARINT:
+				for(int i = 0; i < v.length; i++)out.writeZigZagLong(v[i]);
+				break;
+			case DELTA:
+				long previous = 0;
+				for(int i = 0; i < v.length; i++) {
+					out.writeZigZagLong(v[i] - previous);
+					previous = v[i];
+				}
+				break;
+			default:
+				for(int i = 0; i < v.length;) {
+					int run = 1;
+					while(i + run < v.length && v[i + run] == v[i])run++;
+					writePlain(v[i], kind, out);
+					out.writeVarInt(run);
+					i += run;
+				}
+		}
+	}
+
+	private static void writePlain(long v, int kind, ByteOutput out) {
+		switch(WIDTH[kind]) {
+			case 1: out.writeByte((byte)v); break;
+			case 2: out.writeShort((short)v); break;
+			case 4: out.writeInt((int)v); break;
+			default: out.writeLong(v); break;
+		}
+	}
+
+	private static long readPlain(int kind, ByteInput in) throws IOException {
+		switch(WIDTH[kind]) {
+			case 1: return in.readByte();
+			case 2: return in.readShort();
+			case 4: return in.readInt();
+			default: return in.readLong();
+		}
+	}
+
+	/**
+	*Read a primitive column into a field of every row, or into the database ids if the field is null.
+	*/
+	private static void readPrimitives(FieldCodec f, int kind, Decoder d, List<Object> rows, int count, ClassCodec codec) throws Throwable {
+		ByteInput in = d.in;
+		byte encoding = in.readByte();
+		//The length of the column is only needed for skipping it
+		in.readInt();
+		boolean integral = kind != FLOAT && kind != DOUBLE;
+		if(encoding != PLAIN && encoding != RUN_LENGTH && !(integral && (encoding == VARINT || encoding == DELTA))) {
+			throw new SerializationException(String.format("Invalid encoding %d of a column of class %s", encoding, codec.type.getName()));
+		}
+		long previous = 0;
+		for(int i = 0; i < count;) {
+			long v;
+			int run = 1;
+			if(encoding == PLAIN)v = readPlain(kind, in);
+			else if(encoding == VARINT)v = in.readZigZagLong();
+			else if(encoding == DELTA)v = previous = previous + in.readZigZagLong();
+			else {
+				v = readPlain(kind, in);
+				run = in.readVarInt();
+				if(run <= 0 || run > count - i)throw new SerializationException(String.format("Invalid run length %d", run));
+			}
+			for(int j = i + run; i < j; i++) {
+				if(f == null)((DBObject)row(rows, i, codec, d)).getMeta().id = (int)v;
+				else set(f, kind, row(rows, i, codec, d), v);
+			}
+		}
+	}
+
+	private static void writeObjects(Registry r, FieldCodec f, List<?> rows, Encoder e) throws Throwable {
+		ByteOutput out = e.out;
+		Object[] v = new Object[rows.size()];
+		for(int i = 0; i < v.length; i++)v[i] = (Object)f.getter.invokeExact(rows.get(i));
+		HashMap<Object, Integer> dictionary = dictionary(v);
+		out.writeByte(dictionary == null ? PLAIN : DICTIONARY);
+		int lengthPosition = out.size();
+		out.writeInt(0);
+		if(dictionary == null) {
+			for(int i = 0; i < v.length; i++)r.writeObject(v[i], e);
+		}
+		else {
+			Object[] entries = new Object[dictionary.size()];
+			for(Map.Entry<Object, Integer> entry : dictionary.entrySet())entries[entry.getValue()] = entry.getKey();
+			out.writeVarInt(entries.length);
+			for(int i = 0; i < entries.length; i++)r.writeObject(entries[i], e);
+			for(int i = 0; i < v.length; i++)out.writeVarInt(dictionary.get(v[i]));
+		}
+		out.patchInt(lengthPosition, out.size() - lengthPosition - 4);
+	}
+
+	/**
+	*Number the distinct values of an object column, or return null if the column isn't worth a dictionary.
+	* Only immutable values are shared through the dictionary, so that no row sees a change made through another row.
+	*/
+	private static HashMap<Object, Integer> dictionary(Object[] v) {
+		HashMap<Object, Integer> dictionary = new HashMap<Object, Integer>();
+		for(int i = 0; i < v.length; i++) {
+			if(v[i] != null && !(v[i] instanceof String) && !Database.isWrapper(v[i].getClass()))return null;
+			if(!dictionary.containsKey(v[i]))dictionary.put(v[i], dictionary.size());
+			if(dictionary.size() * 2 > v.length)return null;
+		}
+		return v.length == 0 ? null : dictionary;
+	}
+
+	/**
+	*Read an object column into a field of every row, or only consume it if the field is null.
+	*/
+	private static void readObjects(Registry r, FieldCodec f, Decoder d, List<Object> rows, int count, ClassCodec codec) throws Throwable {
+		byte encoding = d.in.readByte();
+		int length = d.in.readInt();
+		//Every row takes at least one byte of an object column
+		if(length < count)throw new SerializationException(String.format("An object column of %d bytes can't hold %d rows", length, count));
+		//The rows must be tracked before the objects in the column, the same as they were when they were written
+		if(r.referenceTracking)row(rows, count - 1, codec, d);
+		if(encoding == PLAIN) {
+			for(int i = 0; i < count; i++) {
+				Object v = r.readObject(d);
+				if(f != null)f.setter.invokeExact(row(rows, i, codec, d), v);
+			}
+			return;
+		}
+		if(encoding != DICTIONARY)throw new SerializationException(String.format("Invalid encoding %d of an object column", encoding));
+		int size = d.in.readVarInt();
+		if(size < 0)throw new SerializationException(String.format("Invalid dictionary size %d", size));
+		Object[] entries = new Object[Math.min(size, count)];
+		if(size > entries.length)throw new SerializationException(String.format("Invalid dictionary size %d", size));
+		for(int i = 0; i < size; i++)entries[i] = r.readObject(d);
+		for(int i = 0; i < count; i++) {
+			int index = d.in.readVarInt();
+			if(index < 0 || index >= size)throw new SerializationException(String.format("Invalid dictionary index %d", index));
+			if(f != null)f.setter.invokeExact(row(rows, i, codec, d), entries[index]);
+		}
+	}
+}
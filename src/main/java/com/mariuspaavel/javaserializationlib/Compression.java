@@ -0,0 +1,124 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+*Compresses serialized objects in blocks with java.util.zip.Deflater.
+* A block starts with a marker byte. A deflated block continues with its uncompressed length as a 4 byte big endian int and 
+* the deflated data, a block that wouldn't get smaller is stored as it is after the marker. 
+* An optional preset dictionary is used by both sides. Records of the same class repeat the same class ids, field names and 
+* common values, so a dictionary made of a few typical serialized objects makes even small records compress well. 
+* Every block gets its own deflater or inflater, which is ended right away so that its native memory is freed, 
+* a Compression can be shared between threads.
+*/
+public final class Compression {
+
+	private static final byte STORED = 0;
+	private static final byte DEFLATED = 1;
+
+	private final int level;
+	private final byte[] dictionary;
+
+	/**
+	*Compress with the fastest deflate level and no dictionary.
+	*/
+	public Compression() {
+		this(Deflater.BEST_SPEED, null);
+	}
+
+	/**
+	*@param level The deflate level from 0 to 9, higher levels compress better and are slower.
+	*@param dictionary A preset dictionary or null. The reading side must use the same dictionary.
+	*/
+	public Compression(int level, byte[] dictionary) {
+		if(level < 0 || level > 9)throw new IllegalArgumentException(String.format("Invalid compression level %d", level));
+		this.level = level;
+		this.dictionary = dictionary == null ? null : dictionary.clone();
+	}
+
+	/**
+	*Compress bytes to a new block.
+	*/
+	public byte[] compress(byte[] bytes) {
+		ByteOutput out = new ByteOutput(bytes.length / 2 + 16);
+		compress(bytes, 0, bytes.length, out);
+		return out.toByteArray();
+	}
+
+	/**
+	*Decompress a block that was made by compress.
+	*/
+	public byte[] decompress(byte[] block) {
+		byte[] bytes = new byte[decompressedLength(block, 0, block.length)];
+		decompress(block, 0, block.length, bytes);
+		return bytes;
+	}
+
+	/**
+	*Append a block to a buffer.
+	*/
+	void compress(byte[] b, int off, int len, ByteOutput out) {
+		int start = out.size();
+		out.writeByte(DEFLATED);
+		out.writeInt(len);
+		Deflater deflater = new Deflater(level);
+		try {
+			if(dictionary != null)deflater.setDictionary(dictionary);
+			deflater.setInput(b, off, len);
+			deflater.finish();
+			out.deflate(deflater);
+		}finally {
+			deflater.end();
+		}
+		if(out.size() - start > len + 1) {
+			out.truncate(start);
+			out.writeByte(STORED);
+			out.write(b, off, len);
+		}
+	}
+
+	/**
+	*Get the uncompressed length of a block.
+	*/
+	int decompressedLength(byte[] b, int off, int len) {
+		if(len >= 1 && b[off] == STORED)return len - 1;
+		if(len < 5 || b[off] != DEFLATED)throw new SerializationException("Invalid compressed block");
+		int length = ((b[off + 1] & 0xff) << 24) | ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 8) | (b[off + 4] & 0xff);
+		if(length < 0)throw new SerializationException(String.format("Invalid uncompressed length %d", length));
+		return length;
+	}
+
+	/**
+	*Decompress a block to the start of dst, which must be at least decompressedLength bytes long.
+	*/
+	void decompress(byte[] b, int off, int len, byte[] dst) {
+		int length = decompressedLength(b, off, len);
+		if(b[off] == STORED) {
+			System.arraycopy(b, off + 1, dst, 0, length);
+			return;
+		}
+		Inflater inflater = new Inflater();
+		inflater.setInput(b, off + 5, len - 5);
+		try {
+			int total = 0;
+			while(total < length) {
+				int n = inflater.inflate(dst, total, length - total);
+				if(n == 0) {
+					if(inflater.needsDictionary()) {
+						if(dictionary == null)throw new SerializationException("The block was compressed with a dictionary");
+						inflater.setDictionary(dictionary);
+					}
+					else if(inflater.finished() || inflater.needsInput())throw new SerializationException("Compressed block is truncated");
+				}
+				total += n;
+			}
+		}catch(DataFormatException e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
+		}finally {
+			inflater.end();
+		}
+	}
+}
@@ -2,6 +2,7 @@ package com.mariuspaavel.javaserializationlib;
 
 import java.io.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.sql.*;
 import java.util.*;
@@ -107,6 +108,29 @@ public class Database {
 
 	PrintStream ds;
 	
+	static boolean isPrimitiveArray(Class c) {
+		return c.isArray() && c.getComponentType().isPrimitive();
+	}
+
+	static boolean isWrapper(Class c) {
+		return c.equals(Boolean.class) || c.equals(Byte.class) || c.equals(Short.class) || c.equals(Integer.class)
+			|| c.equals(Long.class) || c.equals(Float.class) || c.equals(Double.class);
+	}
+
+	/**
+	*Serialize a primitive array to the contents of a BLOB column.
+	*/
+	private byte[] toBlob(Object array) {
+		ByteOutput out = new ByteOutput();
+		mg.write(array, out);
+		return out.toByteArray();
+	}
+
+	private Object fromBlob(byte[] blob) {
+		if(blob == null)return null;
+		return mg.read(ByteBuffer.wrap(blob));
+	}
+
 	/**
 	*Get the name of the database.
 	*/
@@ -127,6 +151,7 @@ public class Database {
 		}
 		
 		private Class dataType;
+		private Compression compression;
 		
 		
 		/**
@@ -138,13 +163,46 @@ public class Database {
 		* (subclasses not included)
 		*/
 		public Table(String name, Class dataType) {
+			this(name, dataType, null);
+		}
+
+		/**
+		*Add a table whose serialized fields are compressed.
+		* In a compressed table all fields that aren't primitives, wrappers or strings are stored as compressed BLOB columns instead of 
+		* Base64 text. The compression must be chosen when the table is created and must not change afterwards.
+		* @param compression The compression of the BLOB columns, or null for an uncompressed table.
+		*/
+		public Table(String name, Class dataType, Compression compression) {
 			if(Database.this.isopen) {
 				throw new RuntimeException("Error: A new table cannot be opened when database is already open");
 			}
 			this.name = name;
 			this.dataType = dataType;
+			this.compression = compression;
 			Database.this.addTable(this);
 		}
+
+		/**
+		*Whether a field is stored in a BLOB column.
+		*/
+		private boolean isBlob(Class c) {
+			if(isPrimitiveArray(c))return true;
+			return compression != null && !c.isPrimitive() && !isWrapper(c) && !c.equals(String.class);
+		}
+
+		/**
+		*Serialize the value of a BLOB column, byte arrays are stored as they are.
+		*/
+		private byte[] blob(Object value) {
+			byte[] bytes = value instanceof byte[] ? (byte[])value : toBlob(value);
+			return compression == null ? bytes : compression.compress(bytes);
+		}
+
+		private Object unblob(byte[] blob, Class type) {
+			if(blob == null)return null;
+			if(compression != null)blob = compression.decompress(blob);
+			return type.equals(byte[].class) ? blob : fromBlob(blob);
+		}
 		
 		
 		private boolean isopen = false;
@@ -197,12 +255,12 @@ public class Database {
 				else if(fieldClass.equals(String.class)) {
 					sb.append("TEXT");
 				}
+				else if(isBlob(fieldClass)) {
+					sb.append("BLOB");
+				}
 				else if(fieldClass.isInstance(List.class)) {
 					sb.append("TEXT");
 				}
-				else if(fieldClass.equals(byte[].class)) {
-					sb.append("BLOB");
-				}
 				else {
 					sb.append("TEXT");
 				}
@@ -347,9 +405,9 @@ public class Database {
 							sb.append(f.get(o));
 							sb.append("\"");
 						}
-						else if(fclass.equals(byte[].class)) {
+						else if(isBlob(fclass)) {
 							sb.append("?");
-							blobs.put(blobIndex, (byte[])f.get(o));
+							blobs.put(blobIndex, blob(value));
 							blobIndex++;
 						}
 						else if(fclass.isInstance(List.class)) {
@@ -386,7 +444,7 @@ public class Database {
 					try(PreparedStatement pstmt = c.prepareStatement(sql)) {
 					   	
 						for(Integer i : blobs.keySet()) {
-							pstmt.setBytes(blobIndex, blobs.get(i));
+							pstmt.setBytes(i + 1, blobs.get(i));
 						}
 			        	
 						pstmt.executeUpdate();
@@ -429,6 +487,10 @@ public class Database {
 				Class fclass = f.getType();
 				
 				if(value == null)sb.append("NULL");
+				else if(isBlob(fclass)) {
+					sb.append("?");
+					blob = blob(value);
+				}
 				else if(value instanceof String){
 					sb.append("\"");
 					sb.append(value.toString());
@@ -442,10 +504,6 @@ public class Database {
 					sb.append(B64.encode(bytes));
 					sb.append("\"");
 				}
-				else if(fclass.equals(byte[].class)) {
-					sb.append("?");
-					blob = (byte[])f.get(value);
-				}
 				else if(value instanceof Number){
 					sb.append(value.toString());
 				}
@@ -477,8 +535,8 @@ public class Database {
 					}
 				}else {
 					try(PreparedStatement pstmt = c.prepareStatement(sql)){
-						pstmt.executeQuery(sql);
-						pstmt.setBytes(0, blob);
+						pstmt.setBytes(1, blob);
+						pstmt.executeUpdate();
 					}
 				}
 			}catch( SQLException | IllegalArgumentException | IllegalAccessException e) {
@@ -583,8 +641,8 @@ public class Database {
 				else if(ftype.equals(double.class) || ftype.equals(Double.class)) {
 					return rs.getInt(fieldName);
 				}
-				else if(ftype.equals(byte[].class)) {
-					return rs.getBytes(fieldName);
+				else if(isBlob(ftype)) {
+					return unblob(rs.getBytes(fieldName), ftype);
 				}
 				else if(ftype.isInstance(List.class)) {
 					String b64 = rs.getString(name);
@@ -666,8 +724,8 @@ public class Database {
 				else if(ftype.equals(String.class)) {
 					f.set(output, rs.getString(name));
 				}
-				else if(ftype.equals(byte[].class)) {
-					f.set(output, rs.getBytes(name));
+				else if(isBlob(ftype)) {
+					f.set(output, unblob(rs.getBytes(name), ftype));
 				}
 				else if(ftype.isInstance(List.class)) {
 					String b64 = rs.getString(name);
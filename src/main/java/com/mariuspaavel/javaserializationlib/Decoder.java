@@ -0,0 +1,90 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*The state of deserializing one object graph, the counterpart of Encoder.
+*/
+class Decoder {
+
+	final ByteInput in;
+	private final Registry r;
+	private FieldReader reader;
+
+	/**
+	*The objects read so far in the order of their reference index, only used when reference tracking is on.
+	*/
+	private final ArrayList<Object> refs;
+
+	/**
+	*The strings read so far in the order of their dictionary index, only used when the string dictionary is on.
+	*/
+	private final ArrayList<String> strings;
+
+	/**
+	*Whether the current values of object fields are overwritten instead of replaced, see Manager.readInto.
+	*/
+	boolean reuse;
+
+	/**
+	*The pool that new instances of registrated classes are taken from, or null.
+	*/
+	ObjectPool pool;
+
+	/**
+	*The sink that large byte arrays and strings are handed over to, or null.
+	*/
+	BlobSink sink;
+
+	Decoder(Registry r, ByteInput in) {
+		this.in = in;
+		this.r = r;
+		this.refs = r.referenceTracking ? new ArrayList<Object>() : null;
+		this.strings = r.stringDictionary ? new ArrayList<String>() : null;
+	}
+
+	/**
+	*Get the reader that generated codecs use, it is created when the first generated codec is used.
+	*/
+	FieldReader reader() {
+		if(reader == null)reader = new FieldReader(r, this);
+		return reader;
+	}
+
+	/**
+	*Remember a newly created object so that later back references can resolve to it.
+	* It must be called before the contents of the object are read, so that cyclic references work.
+	*/
+	void track(Object o) {
+		if(refs != null)refs.add(o);
+	}
+
+	/**
+	*Hand a large value over to the sink if there is one and it accepts the value.
+	* @return Whether the value was consumed.
+	*/
+	boolean deliver(Class type, int length) throws IOException {
+		if(sink == null || length < BlobSink.THRESHOLD)return false;
+		OutputStream stream = sink.open(type, length);
+		if(stream == null)return false;
+		in.transferTo(length, stream);
+		stream.close();
+		return true;
+	}
+
+	Object reference(int index) {
+		if(refs == null)throw new SerializationException("Found a back reference, but reference tracking is off");
+		if(index < 0 || index >= refs.size())throw new SerializationException(String.format("Invalid back reference %d", index));
+		return refs.get(index);
+	}
+
+	void addString(String s) {
+		strings.add(s);
+	}
+
+	String string(int index) {
+		if(index < 0 || index >= strings.size())throw new SerializationException(String.format("Invalid string dictionary index %d", index));
+		return strings.get(index);
+	}
+}
@@ -0,0 +1,60 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.util.*;
+
+/**
+*The state of serializing one object graph.
+* A new Encoder is created for every object that is passed to the Manager, so the tables it keeps only describe the current stream.
+*/
+class Encoder {
+
+	final ByteOutput out;
+	private final Registry r;
+	private FieldWriter writer;
+
+	/**
+	*The objects already written to the stream and their reference index, only used when reference tracking is on.
+	*/
+	private final IdentityHashMap<Object, Integer> refs;
+
+	/**
+	*The strings already written to the stream and their index, only used when the string dictionary is on.
+	*/
+	private final HashMap<String, Integer> strings;
+
+	Encoder(Registry r, ByteOutput out) {
+		this.out = out;
+		this.r = r;
+		this.refs = r.referenceTracking ? new IdentityHashMap<Object, Integer>() : null;
+		this.strings = r.stringDictionary ? new HashMap<String, Integer>() : null;
+	}
+
+	/**
+	*Get the writer that generated codecs use, it is created when the first generated codec is used.
+	*/
+	FieldWriter writer() {
+		if(writer == null)writer = new FieldWriter(r, this);
+		return writer;
+	}
+
+	/**
+	*Get the reference index of an object that has already been written, or remember it and return -1 if it is new.
+	*/
+	int reference(Object o) {
+		if(refs == null)return -1;
+		Integer ref = refs.get(o);
+		if(ref != null)return ref;
+		refs.put(o, refs.size());
+		return -1;
+	}
+
+	/**
+	*Get the dictionary index of a string that has already been written, or remember it and return -1 if it is new.
+	*/
+	int stringIndex(String s) {
+		Integer index = strings.get(s);
+		if(index != null)return index;
+		strings.put(s, strings.size());
+		return -1;
+	}
+}
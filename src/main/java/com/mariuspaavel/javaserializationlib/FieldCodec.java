@@ -0,0 +1,423 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+import java.io.*;
+
+/**
+*Reads and writes a single @S field of a registrated class.
+* The accessors are resolved once when the Manager locks its initialization. There is one subclass per field type,
+* so serializing a field does not use reflection and does not check the type of the field again.
+*/
+abstract class FieldCodec {
+
+	final Field field;
+	final String name;
+	final MethodHandle getter;
+	final MethodHandle setter;
+
+	/**
+	*The id from the @S annotation, or 0 if the field doesn't have one.
+	*/
+	final int tag;
+
+	FieldCodec(Field field, Class type) {
+		this.field = field;
+		this.name = field.getName();
+		S s = field.getAnnotation(S.class);
+		this.tag = s == null ? 0 : s.id();
+		if(tag < 0 || tag > Integer.MAX_VALUE >>> 1)throw new RuntimeException(String.format("Field %s has an invalid id %d", name, tag));
+		field.setAccessible(true);
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		try {
+			getter = lookup.unreflectGetter(field).asType(MethodType.methodType(type, Object.class));
+			setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, type));
+		}catch(IllegalAccessException e) {
+			e.printStackTrace();
+			throw new RuntimeException(String.format("Cannot access field %s", name));
+		}
+	}
+
+	/**
+	*Write the value of this field of object o.
+	*/
+	abstract void write(Object o, Encoder e) throws Throwable;
+
+	/**
+	*Read a value and assign it to this field of object o.
+	*/
+	abstract void read(Decoder d, Object o) throws Throwable;
+
+	/**
+	*Read the value of this field and return it, boxed if the field is a primitive.
+	*/
+	abstract Object readValue(Decoder d) throws Throwable;
+
+	/**
+	*Move past the value of this field without deserializing it.
+	*/
+	abstract void skip(Decoder d) throws Throwable;
+
+	/**
+	*Get the number of bytes the value of this field always takes, or -1 if its size varies.
+	*/
+	int width() {
+		return -1;
+	}
+
+	/**
+	*Resolve the codecs of other classes once all classes have their codecs.
+	* @return The field codec that should be used instead of this one.
+	*/
+	FieldCodec link() {
+		return this;
+	}
+
+	/**
+	*Create the codec that matches the type of the field.
+	*/
+	static FieldCodec create(Field f, Registry r) {
+		Class c = f.getType();
+		if(c.equals(boolean.class))return new BooleanField(f);
+		else if(c.equals(byte.class))return new ByteField(f);
+		else if(c.equals(short.class))return r.compact ? new VarShortField(f) : new ShortField(f);
+		else if(c.equals(int.class))return r.compact ? new VarIntField(f) : new IntField(f);
+		else if(c.equals(long.class))return r.compact ? new VarLongField(f) : new LongField(f);
+		else if(c.equals(float.class))return new FloatField(f);
+		else if(c.equals(double.class))return new DoubleField(f);
+		else if(r.monomorphic && Modifier.isFinal(c.getModifiers()))return new MonoField(f, r);
+		else if(r.monomorphic && f.getAnnotation(S.class).elementType() != Object.class)return new MonoListField(f, r);
+		else return new ObjectField(f, r);
+	}
+
+	static class BooleanField extends FieldCodec {
+		BooleanField(Field f) {
+			super(f, boolean.class);
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			e.out.writeBoolean((boolean)getter.invokeExact(o));
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, d.in.readBoolean());
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return d.in.readBoolean();
+		}
+		void skip(Decoder d) throws Throwable {
+			d.in.skip(1);
+		}
+		int width() {
+			return 1;
+		}
+	}
+
+	static class ByteField extends FieldCodec {
+		ByteField(Field f) {
+			super(f, byte.class);
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			e.out.writeByte((byte)getter.invokeExact(o));
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, d.in.readByte());
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return d.in.readByte();
+		}
+		void skip(Decoder d) throws Throwable {
+			d.in.skip(1);
+		}
+		int width() {
+			return 1;
+		}
+	}
+
+	static class ShortField extends FieldCodec {
+		ShortField(Field f) {
+			super(f, short.class);
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			e.out.writeShort((short)getter.invokeExact(o));
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, d.in.readShort());
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return d.in.readShort();
+		}
+		void skip(Decoder d) throws Throwable {
+			d.in.skip(2);
+		}
+		int width() {
+			return 2;
+		}
+	}
+
+	static class IntField extends FieldCodec {
+		IntField(Field f) {
+			super(f, int.class);
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			e.out.writeInt((int)getter.invokeExact(o));
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, d.in.readInt());
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return d.in.readInt();
+		}
+		void skip(Decoder d) throws Throwable {
+			d.in.skip(4);
+		}
+		int width() {
+			return 4;
+		}
+	}
+
+	static class LongField extends FieldCodec {
+		LongField(Field f) {
+			super(f, long.class);
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			e.out.writeLong((long)getter.invokeExact(o));
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, d.in.readLong());
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return d.in.readLong();
+		}
+		void skip(Decoder d) throws Throwable {
+			d.in.skip(8);
+		}
+		int width() {
+			return 8;
+		}
+	}
+
+	static class VarShortField extends FieldCodec {
+		VarShortField(Field f) {
+			super(f, short.class);
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			e.out.writeZigZagInt((short)getter.invokeExact(o));
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, (short)d.in.readZigZagInt());
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return (short)d.in.readZigZagInt();
+		}
+		void skip(Decoder d) throws Throwable {
+			d.in.readVarInt();
+		}
+	}
+
+	static class VarIntField extends FieldCodec {
+		VarIntField(Field f) {
+			super(f, int.class);
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			e.out.writeZigZagInt((int)getter.invokeExact(o));
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, d.in.readZigZagInt());
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return d.in.readZigZagInt();
+		}
+		void skip(Decoder d) throws Throwable {
+			d.in.readVarInt();
+		}
+	}
+
+	static class VarLongField extends FieldCodec {
+		VarLongField(Field f) {
+			super(f, long.class);
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			e.out.writeZigZagLong((long)getter.invokeExact(o));
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, d.in.readZigZagLong());
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return d.in.readZigZagLong();
+		}
+		void skip(Decoder d) throws Throwable {
+			d.in.readVarLong();
+		}
+	}
+
+	static class FloatField extends FieldCodec {
+		FloatField(Field f) {
+			super(f, float.class);
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			e.out.writeFloat((float)getter.invokeExact(o));
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, d.in.readFloat());
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return d.in.readFloat();
+		}
+		void skip(Decoder d) throws Throwable {
+			d.in.skip(4);
+		}
+		int width() {
+			return 4;
+		}
+	}
+
+	static class DoubleField extends FieldCodec {
+		DoubleField(Field f) {
+			super(f, double.class);
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			e.out.writeDouble((double)getter.invokeExact(o));
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, d.in.readDouble());
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return d.in.readDouble();
+		}
+		void skip(Decoder d) throws Throwable {
+			d.in.skip(8);
+		}
+		int width() {
+			return 8;
+		}
+	}
+
+	static class ObjectField extends FieldCodec {
+		private final Registry r;
+		ObjectField(Field f, Registry r) {
+			super(f, Object.class);
+			this.r = r;
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			r.writeObject((Object)getter.invokeExact(o), e);
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			if(d.reuse)setter.invokeExact(o, r.readObjectInto(d, (Object)getter.invokeExact(o)));
+			else setter.invokeExact(o, r.readObject(d));
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return r.readObject(d);
+		}
+		void skip(Decoder d) throws Throwable {
+			r.skipObject(d);
+		}
+	}
+
+	/**
+	*A field whose declared type is a final class, written with a null flag instead of a class id.
+	*/
+	static class MonoField extends FieldCodec {
+		private final Registry r;
+		TypeCodec codec;
+		MonoField(Field f, Registry r) {
+			super(f, Object.class);
+			this.r = r;
+		}
+		FieldCodec link() {
+			codec = r.codecFor(field.getType());
+			//A final class that isn't registrated can only hold null, which the object codec handles
+			return codec == null ? new ObjectField(field, r) : this;
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			r.writeKnown((Object)getter.invokeExact(o), codec, e);
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, r.readKnown(codec, d, d.reuse ? (Object)getter.invokeExact(o) : null));
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return r.readKnown(codec, d, null);
+		}
+		void skip(Decoder d) throws Throwable {
+			r.skipKnown(codec, d);
+		}
+	}
+
+	/**
+	*A List field with a final element type, the elements are written with a null flag instead of a class id.
+	*/
+	static class MonoListField extends FieldCodec {
+		private final Registry r;
+		private final Class elementType;
+		TypeCodec codec;
+		MonoListField(Field f, Registry r) {
+			super(f, Object.class);
+			this.r = r;
+			this.elementType = f.getAnnotation(S.class).elementType();
+			if(!f.getType().isAssignableFrom(ArrayList.class))throw new RuntimeException(String.format("Field %s has an elementType but can't hold an ArrayList", name));
+		}
+		FieldCodec link() {
+			codec = Modifier.isFinal(elementType.getModifiers()) ? r.codecFor(elementType) : null;
+			if(codec == null)throw new RuntimeException(String.format("The elementType of field %s must be a final registrated or built-in class", name));
+			return this;
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			Object v = (Object)getter.invokeExact(o);
+			if(v == null) {
+				e.out.writeByte(Registry.KNOWN_NULL);
+				return;
+			}
+			if(!(v instanceof List))throw new RuntimeException(String.format("Field %s holds a %s instead of a List", name, v.getClass().getName()));
+			List l = (List)v;
+			int ref = e.reference(l);
+			if(ref != -1) {
+				e.out.writeByte(Registry.KNOWN_REFERENCE);
+				r.writeLength(ref, e.out);
+				return;
+			}
+			e.out.writeByte(Registry.KNOWN_VALUE);
+			r.writeLength(l.size(), e.out);
+			for(int i = 0; i < l.size(); i++) {
+				r.writeKnown(l.get(i), codec, e);
+			}
+		}
+		void read(Decoder d, Object o) throws Throwable {
+			setter.invokeExact(o, readList(d, d.reuse ? (Object)getter.invokeExact(o) : null));
+		}
+		Object readValue(Decoder d) throws Throwable {
+			return readList(d, null);
+		}
+		private Object readList(Decoder d, Object old) throws Throwable {
+			byte flag = d.in.readByte();
+			if(flag == Registry.KNOWN_NULL)return null;
+			if(flag == Registry.KNOWN_REFERENCE)return d.reference(r.readLength(d.in));
+			if(flag != Registry.KNOWN_VALUE)throw new SerializationException(String.format("Invalid value flag %d", flag));
+			int length = r.readLength(d.in);
+			ArrayList l = old instanceof ArrayList ? (ArrayList)old : new ArrayList(length);
+			d.track(l);
+			for(int i = 0; i < length; i++) {
+				if(i < l.size())l.set(i, r.readKnown(codec, d, l.get(i)));
+				else l.add(r.readKnown(codec, d, null));
+			}
+			while(l.size() > length)l.remove(l.size() - 1);
+			return l;
+		}
+		void skip(Decoder d) throws Throwable {
+			//With reference tracking the list may be referred to later, so it has to be read
+			if(r.referenceTracking) {
+				readList(d, null);
+				return;
+			}
+			byte flag = d.in.readByte();
+			if(flag == Registry.KNOWN_REFERENCE)r.readLength(d.in);
+			if(flag != Registry.KNOWN_VALUE)return;
+			int length = r.readLength(d.in);
+			for(int i = 0; i < length; i++) {
+				r.skipKnown(codec, d);
+			}
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.io.*;
+
+/**
+*Reads field values for a generated codec in the encoding of the Manager.
+*/
+public final class FieldReader {
+
+	private final Registry r;
+	private final Decoder d;
+
+	FieldReader(Registry r, Decoder d) {
+		this.r = r;
+		this.d = d;
+	}
+
+	public boolean readBoolean() throws IOException {
+		return d.in.readBoolean();
+	}
+
+	public byte readByte() throws IOException {
+		return d.in.readByte();
+	}
+
+	public short readShort() throws IOException {
+		return r.compact ? (short)d.in.readZigZagInt() : d.in.readShort();
+	}
+
+	public int readInt() throws IOException {
+		return r.compact ? d.in.readZigZagInt() : d.in.readInt();
+	}
+
+	public long readLong() throws IOException {
+		return r.compact ? d.in.readZigZagLong() : d.in.readLong();
+	}
+
+	public float readFloat() throws IOException {
+		return d.in.readFloat();
+	}
+
+	public double readDouble() throws IOException {
+		return d.in.readDouble();
+	}
+
+	/**
+	*Read a value with its class id, like a field that isn't a primitive.
+	* @param old The current value of the field, which is reused when the Manager reads into an existing instance.
+	*/
+	public Object readObject(Object old) throws Throwable {
+		return d.reuse ? r.readObjectInto(d, old) : r.readObject(d);
+	}
+}
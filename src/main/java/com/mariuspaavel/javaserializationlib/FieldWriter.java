@@ -0,0 +1,53 @@
+package com.mariuspaavel.javaserializationlib;
+
+/**
+*Writes field values for a generated codec in the encoding of the Manager.
+*/
+public final class FieldWriter {
+
+	private final Registry r;
+	private final Encoder e;
+
+	FieldWriter(Registry r, Encoder e) {
+		this.r = r;
+		this.e = e;
+	}
+
+	public void writeBoolean(boolean v) {
+		e.out.writeBoolean(v);
+	}
+
+	public void writeByte(byte v) {
+		e.out.writeByte(v);
+	}
+
+	public void writeShort(short v) {
+		if(r.compact)e.out.writeZigZagInt(v);
+		else e.out.writeShort(v);
+	}
+
+	public void writeInt(int v) {
+		if(r.compact)e.out.writeZigZagInt(v);
+		else e.out.writeInt(v);
+	}
+
+	public void writeLong(long v) {
+		if(r.compact)e.out.writeZigZagLong(v);
+		else e.out.writeLong(v);
+	}
+
+	public void writeFloat(float v) {
+		e.out.writeFloat(v);
+	}
+
+	public void writeDouble(double v) {
+		e.out.writeDouble(v);
+	}
+
+	/**
+	*Write a value with its class id, like a field that isn't a primitive.
+	*/
+	public void writeObject(Object o) throws Throwable {
+		r.writeObject(o, e);
+	}
+}
@@ -0,0 +1,61 @@
+package com.mariuspaavel.javaserializationlib;
+
+/**
+*The base class of the codecs that the annotation processor generates for classes with @S fields.
+* A generated codec reads and writes the fields directly instead of through reflection. It is found by the name of the class it
+* serializes with "_SCodec" appended and used when the class is registrated. If the generated codec doesn't match the fields of 
+* the class, because the class was changed and not processed again, the Manager falls back to reflection.
+* Generated codecs are only used for the untagged format, the other ways of reading use the reflective field codecs.
+*/
+public abstract class GeneratedCodec {
+
+	/**
+	*Get the fields that the codec was generated for, as name:type pairs in alphabetical order separated by commas.
+	* Primitive fields have the name of their type, all other fields have the type object.
+	*/
+	public abstract String fields();
+
+	/**
+	*Create a new instance with the no-argument constructor.
+	*/
+	public abstract Object newInstance();
+
+	/**
+	*Write the @S fields of the object in alphabetical order.
+	*/
+	public abstract void write(Object o, FieldWriter out) throws Throwable;
+
+	/**
+	*Read the @S fields of the object in alphabetical order.
+	*/
+	public abstract void read(Object o, FieldReader in) throws Throwable;
+
+	/**
+	*Find the generated codec of a class.
+	* @return The codec, or null if none has been generated.
+	*/
+	static GeneratedCodec find(Class c) {
+		try {
+			Class generated = Class.forName(c.getName() + "_SCodec", true, c.getClassLoader());
+			return (GeneratedCodec)generated.getDeclaredConstructor().newInstance();
+		}catch(ClassNotFoundException e) {
+			return null;
+		}catch(ReflectiveOperationException | ClassCastException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	*Get the field signature of a class in the form that fields() returns.
+	*/
+	static String signature(FieldCodec[] fields) {
+		StringBuilder sb = new StringBuilder();
+		for(FieldCodec f : fields) {
+			if(sb.length() > 0)sb.append(',');
+			Class type = f.field.getType();
+			sb.append(f.name).append(':').append(type.isPrimitive() ? type.getName() : "object");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,631 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.lang.reflect.Array;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*Binds registrated objects to JSON and back without building an intermediate tree of maps and lists.
+* Writing goes through the @S fields of an object with the accessors of its ClassCodec and prints every value as it is read.
+* Reading parses one token at a time and assigns every value straight to its field, primitive fields are parsed without boxing.
+* An object is written with "className" as its first member, then "dbid" for database objects and the fields that aren't null
+* in alphabetical order. Objects where "className" isn't the first member can still be read: the members before it are kept as
+* text until the class is known. Members that the class doesn't have are skipped, null leaves a field at its default value.
+*/
+class JsonBinder {
+
+	private final Registry r;
+
+	private Writer out;
+
+	private Reader in;
+	private final char[] buf = new char[4096];
+	private int pos;
+	private int limit;
+
+	//The current char, or -1 at the end of the input. It is only valid while loaded is true.
+	private int c;
+	private boolean loaded;
+
+	//Collects the consumed chars while the value of a member is kept as text
+	private StringBuilder recorder;
+
+	private final StringBuilder text = new StringBuilder();
+	private char[] number = new char[32];
+	private int numberLength;
+	private boolean integral;
+
+	JsonBinder(Registry r) {
+		this.r = r;
+	}
+
+	void write(Object o, Writer out) throws Throwable {
+		this.out = out;
+		writeValue(o, false, 0);
+	}
+
+	Object read(Reader in) throws Throwable {
+		this.in = in;
+		skipWS();
+		if(peek() == -1)return null;
+		return readValue(Object.class);
+	}
+
+	private void indent(int depth) throws IOException {
+		for(int i = 0; i < depth; i++)out.write('\t');
+	}
+
+	private void writeValue(Object o, boolean indent, int depth) throws Throwable {
+		if(indent)indent(depth);
+		if(o == null)out.write("null");
+		else if(o instanceof String)writeString((String)o);
+		else if(o instanceof Boolean || o instanceof Number)out.write(o.toString());
+		else if(o instanceof List)writeList((List)o, depth);
+		else if(o.getClass().isArray())writeArray(o, depth);
+		else {
+			TypeCodec codec = r.codecFor(o.getClass());
+			if(codec instanceof ClassCodec)writeClass(o, (ClassCodec)codec, depth);
+			else writeString(o.toString());
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+		out.write('\"');
+		for(int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			switch(ch) {
+				case '\b': out.write("\\b"); break;
+				case '\f': out.write("\\f"); break;
+				case '\n': out.write("\\n"); break;
+				case '\r': out.write("\\r"); break;
+				case '\t': out.write("\\t"); break;
+				case '\"': out.write("\\\""); break;
+				case '\\': out.write("\\\\"); break;
+				default:
+					if(ch < 0x20)out.write(String.format("\\u%04x", (int)ch));
+					else out.write(ch);
+			}
+		}
+		out.write('\"');
+	}
+
+	private void writeList(List l, int depth) throws Throwable {
+		out.write("[\n");
+		for(int i = 0; i < l.size(); i++) {
+			writeValue(l.get(i), true, depth + 1);
+			if(i + 1 < l.size())out.write(',');
+			out.write('\n');
+		}
+		indent(depth);
+		out.write(']');
+	}
+
+	/**
+	*Write an array, primitive arrays with a loop over their own type so that the elements aren't boxed.
+	*/
+	private void writeArray(Object array, int depth) throws Throwable {
+		out.write('[');
+		if(array instanceof int[]) {
+			int[] a = (int[])array;
+			for(int i = 0; i < a.length; i++) {
+				element(i, depth);
+				out.write(Integer.toString(a[i]));
+			}
+		}
+		else if(array instanceof long[]) {
+			long[] a = (long[])array;
+			for(int i = 0; i < a.length; i++) {
+				element(i, depth);
+				out.write(Long.toString(a[i]));
+			}
+		}
+		else if(array instanceof double[]) {
+			double[] a = (double[])array;
+			for(int i = 0; i < a.length; i++) {
+				element(i, depth);
+				out.write(Double.toString(a[i]));
+			}
+		}
+		else if(array instanceof float[]) {
+			float[] a = (float[])array;
+			for(int i = 0; i < a.length; i++) {
+				element(i, depth);
+				out.write(Float.toString(a[i]));
+			}
+		}
+		else if(array instanceof short[]) {
+			short[] a = (short[])array;
+			for(int i = 0; i < a.length; i++) {
+				element(i, depth);
+				out.write(Integer.toString(a[i]));
+			}
+		}
+		else if(array instanceof byte[]) {
+			byte[] a = (byte[])array;
+			for(int i = 0; i < a.length; i++) {
+				element(i, depth);
+				out.write(Integer.toString(a[i]));
+			}
+		}
+		else if(array instanceof boolean[]) {
+			boolean[] a = (boolean[])array;
+			for(int i = 0; i < a.length; i++) {
+				element(i, depth);
+				out.write(a[i] ? "true" : "false");
+			}
+		}
+		else if(array instanceof Object[]) {
+			Object[] a = (Object[])array;
+			for(int i = 0; i < a.length; i++) {
+				element(i, depth);
+				writeValue(a[i], false, depth + 1);
+			}
+		}
+		else {
+			int length = Array.getLength(array);
+			for(int i = 0; i < length; i++) {
+				element(i, depth);
+				writeValue(Array.get(array, i), false, depth + 1);
+			}
+		}
+		out.write('\n');
+		indent(depth);
+		out.write(']');
+	}
+
+	/**
+	*Start the line of element i of an array.
+	*/
+	private void element(int i, int depth) throws IOException {
+		out.write(i == 0 ? "\n" : ",\n");
+		indent(depth + 1);
+	}
+
+	private void writeClass(Object o, ClassCodec codec, int depth) throws Throwable {
+		out.write("{\n");
+		indent(depth + 1);
+		out.write("\"className\": ");
+		writeString(codec.type.getName());
+		if(codec.dbObject) {
+			out.write(",\n");
+			indent(depth + 1);
+			out.write("\"dbid\": ");
+			out.write(Integer.toString(((DBObject)o).getMeta().getId()));
+		}
+		for(FieldCodec f : codec.fields) {
+			Class t = f.field.getType();
+			Object v = null;
+			if(!t.isPrimitive()) {
+				v = (Object)f.getter.invokeExact(o);
+				if(v == null)continue;
+			}
+			out.write(",\n");
+			indent(depth + 1);
+			writeString(f.name);
+			out.write(": ");
+			if(t == boolean.class)out.write((boolean)f.getter.invokeExact(o) ? "true" : "false");
+			else if(t == byte.class)out.write(Integer.toString((byte)f.getter.invokeExact(o)));
+			else if(t == short.class)out.write(Integer.toString((short)f.getter.invokeExact(o)));
+			else if(t == int.class)out.write(Integer.toString((int)f.getter.invokeExact(o)));
+			else if(t == long.class)out.write(Long.toString((long)f.getter.invokeExact(o)));
+			else if(t == float.class)out.write(Float.toString((float)f.getter.invokeExact(o)));
+			else if(t == double.class)out.write(Double.toString((double)f.getter.invokeExact(o)));
+			else writeValue(v, false, depth + 1);
+		}
+		out.write('\n');
+		indent(depth);
+		out.write('}');
+	}
+
+	private int peek() throws IOException {
+		if(loaded)return c;
+		if(pos == limit) {
+			limit = in.read(buf, 0, buf.length);
+			pos = 0;
+			if(limit <= 0) {
+				limit = 0;
+				loaded = true;
+				return c = -1;
+			}
+		}
+		loaded = true;
+		return c = buf[pos++];
+	}
+
+	private void consume() {
+		if(recorder != null)recorder.append((char)c);
+		loaded = false;
+	}
+
+	private void skipWS() throws IOException {
+		while(peek() != -1 && Character.isWhitespace((char)c))consume();
+	}
+
+	private void expect(char ch) throws IOException {
+		skipWS();
+		if(peek() != ch)throw unexpected(String.format("'%c'", ch));
+		consume();
+	}
+
+	private RuntimeException unexpected(String expected) {
+		if(c == -1)return new RuntimeException(String.format("Expected %s but the JSON ended", expected));
+		return new RuntimeException(String.format("Expected %s but found '%c'", expected, (char)c));
+	}
+
+	private static boolean numChar(int ch) {
+		return (ch >= '0' && ch <= '9') || ch == '-' || ch == '+' || ch == '.' || ch == 'e' || ch == 'E';
+	}
+
+	/**
+	*Read any value, converting numbers to the wrapper type and JSON arrays to the array type if one is given.
+	*/
+	private Object readValue(Class type) throws Throwable {
+		skipWS();
+		switch(peek()) {
+			case '{': return readClass();
+			case '[': return type.isArray() ? readArray(type) : readList();
+			case '\"': return readString();
+			case 't': case 'f': return readBoolean();
+			case 'n': readNull(); return null;
+			default:
+				if(!numChar(c))throw unexpected("a value");
+				readNumber();
+				if(type == Integer.class)return (int)numberAsLong();
+				if(type == Long.class)return numberAsLong();
+				if(type == Short.class)return (short)numberAsLong();
+				if(type == Byte.class)return (byte)numberAsLong();
+				if(type == Float.class)return (float)numberAsDouble();
+				if(type == Double.class)return numberAsDouble();
+				return integral ? (Object)numberAsLong() : (Object)numberAsDouble();
+		}
+	}
+
+	/**
+	*Read an object of a registrated class whose name is in its "className" member.
+	*/
+	private Object readClass() throws Throwable {
+		expect('{');
+		ClassCodec codec = null;
+		Object o = null;
+		ArrayList<String> pendingNames = null;
+		ArrayList<String> pendingValues = null;
+		skipWS();
+		if(peek() != '}') {
+			while(true) {
+				skipWS();
+				String name = readString();
+				expect(':');
+				skipWS();
+				if(o != null)readMember(codec, o, name);
+				else if(name.equals("className")) {
+					codec = classCodec(readString());
+					o = codec.newInstance();
+					for(int i = 0; pendingNames != null && i < pendingNames.size(); i++) {
+						JsonBinder member = new JsonBinder(r);
+						member.in = new StringReader(pendingValues.get(i));
+						member.readMember(codec, o, pendingNames.get(i));
+					}
+				}
+				else {
+					if(pendingNames == null) {
+						pendingNames = new ArrayList<String>();
+						pendingValues = new ArrayList<String>();
+					}
+					recorder = new StringBuilder();
+					skipValue();
+					pendingNames.add(name);
+					pendingValues.add(recorder.toString());
+					recorder = null;
+				}
+				skipWS();
+				if(peek() == ',') {
+					consume();
+					continue;
+				}
+				if(c != '}')throw unexpected("',' or '}'");
+				break;
+			}
+		}
+		consume();
+		if(o == null)throw new RuntimeException("A JSON object must have a \"className\" member");
+		return o;
+	}
+
+	private ClassCodec classCodec(String className) {
+		Class cl = r.classesByName.get(className);
+		TypeCodec codec = cl == null ? null : r.codecFor(cl);
+		if(!(codec instanceof ClassCodec))throw new RuntimeException(String.format("Class \"%s\" not registrated", className));
+		if(r.m.d)r.m.ds.println(String.format("Reading JSON object of class %s", className));
+		return (ClassCodec)codec;
+	}
+
+	/**
+	*Read the value of a member and assign it to the field with the same name.
+	*/
+	private void readMember(ClassCodec codec, Object o, String name) throws Throwable {
+		skipWS();
+		if(peek() == 'n') {
+			readNull();
+			return;
+		}
+		if(codec.dbObject && name.equals("dbid")) {
+			readNumber();
+			((DBObject)o).getMeta().id = (int)numberAsLong();
+			return;
+		}
+		int index = codec.fieldIndex(name);
+		if(index == -1) {
+			skipValue();
+			return;
+		}
+		FieldCodec f = codec.fields[index];
+		Class t = f.field.getType();
+		if(!t.isPrimitive()) {
+			f.setter.invokeExact(o, readValue(t));
+			return;
+		}
+		if(t == boolean.class) {
+			f.setter.invokeExact(o, readBoolean());
+			return;
+		}
+		if(!numChar(c))throw unexpected(String.format("a number for field %s", name));
+		readNumber();
+		if(t == int.class)f.setter.invokeExact(o, (int)numberAsLong());
+		else if(t == long.class)f.setter.invokeExact(o, numberAsLong());
+		else if(t == double.class)f.setter.invokeExact(o, numberAsDouble());
+		else if(t == float.class)f.setter.invokeExact(o, (float)numberAsDouble());
+		else if(t == short.class)f.setter.invokeExact(o, (short)numberAsLong());
+		else f.setter.invokeExact(o, (byte)numberAsLong());
+	}
+
+	private List<Object> readList() throws Throwable {
+		expect('[');
+		ArrayList<Object> l = new ArrayList<Object>();
+		skipWS();
+		if(peek() == ']') {
+			consume();
+			return l;
+		}
+		while(true) {
+			l.add(readValue(Object.class));
+			skipWS();
+			if(peek() == ',') {
+				consume();
+				continue;
+			}
+			if(c != ']')throw unexpected("',' or ']'");
+			consume();
+			return l;
+		}
+	}
+
+	/**
+	*Read an array. The elements of primitive arrays are parsed straight into an array of their type that grows as needed.
+	*/
+	private Object readArray(Class type) throws Throwable {
+		Class component = type.getComponentType();
+		expect('[');
+		int n = 0;
+		if(component == int.class) {
+			int[] a = new int[16];
+			for(; nextElement(n); n++) {
+				if(n == a.length)a = Arrays.copyOf(a, n * 2);
+				readElement();
+				a[n] = (int)numberAsLong();
+			}
+			return Arrays.copyOf(a, n);
+		}
+		if(component == long.class) {
+			long[] a = new long[16];
+			for(; nextElement(n); n++) {
+				if(n == a.length)a = Arrays.copyOf(a, n * 2);
+				readElement();
+				a[n] = numberAsLong();
+			}
+			return Arrays.copyOf(a, n);
+		}
+		if(component == double.class) {
+			double[] a = new double[16];
+			for(; nextElement(n); n++) {
+				if(n == a.length)a = Arrays.copyOf(a, n * 2);
+				readElement();
+				a[n] = numberAsDouble();
+			}
+			return Arrays.copyOf(a, n);
+		}
+		if(component == float.class) {
+			float[] a = new float[16];
+			for(; nextElement(n); n++) {
+				if(n == a.length)a = Arrays.copyOf(a, n * 2);
+				readElement();
+				a[n] = (float)numberAsDouble();
+			}
+			return Arrays.copyOf(a, n);
+		}
+		if(component == short.class) {
+			short[] a = new short[16];
+			for(; nextElement(n); n++) {
+				if(n == a.length)a = Arrays.copyOf(a, n * 2);
+				readElement();
+				a[n] = (short)numberAsLong();
+			}
+			return Arrays.copyOf(a, n);
+		}
+		if(component == byte.class) {
+			byte[] a = new byte[16];
+			for(; nextElement(n); n++) {
+				if(n == a.length)a = Arrays.copyOf(a, n * 2);
+				readElement();
+				a[n] = (byte)numberAsLong();
+			}
+			return Arrays.copyOf(a, n);
+		}
+		if(component == boolean.class) {
+			boolean[] a = new boolean[16];
+			for(; nextElement(n); n++) {
+				if(n == a.length)a = Arrays.copyOf(a, n * 2);
+				skipWS();
+				a[n] = readBoolean();
+			}
+			return Arrays.copyOf(a, n);
+		}
+		ArrayList<Object> l = new ArrayList<Object>();
+		for(; nextElement(n); n++)l.add(readValue(component));
+		Object array = Array.newInstance(component, n);
+		if(!component.isPrimitive())return l.toArray((Object[])array);
+		for(int i = 0; i < n; i++)Array.set(array, i, l.get(i));
+		return array;
+	}
+
+	/**
+	*Move to element n of an array whose '[' has been read.
+	* @return Whether there is such an element, the closing ']' is consumed if there isn't.
+	*/
+	private boolean nextElement(int n) throws IOException {
+		skipWS();
+		if(peek() == ']') {
+			consume();
+			return false;
+		}
+		if(n == 0)return true;
+		if(c != ',')throw unexpected("',' or ']'");
+		consume();
+		return true;
+	}
+
+	/**
+	*Read a number that is an element of a primitive array.
+	*/
+	private void readElement() throws IOException {
+		skipWS();
+		if(!numChar(peek()))throw unexpected("a number");
+		readNumber();
+	}
+
+	private String readString() throws IOException {
+		if(peek() != '\"')throw unexpected("a string");
+		consume();
+		text.setLength(0);
+		while(true) {
+			if(peek() == -1)throw unexpected("'\"'");
+			consume();
+			if(c == '\"')return text.toString();
+			if(c != '\\') {
+				text.append((char)c);
+				continue;
+			}
+			if(peek() == -1)throw unexpected("an escape sequence");
+			consume();
+			switch(c) {
+				case 'n': text.append('\n'); break;
+				case 'b': text.append('\b'); break;
+				case 'f': text.append('\f'); break;
+				case 'r': text.append('\r'); break;
+				case 't': text.append('\t'); break;
+				case 'u':
+					int code = 0;
+					for(int i = 0; i < 4; i++) {
+						int digit = Character.digit(peek(), 16);
+						if(c == -1 || digit == -1)throw unexpected("a hex digit");
+						consume();
+						code = code << 4 | digit;
+					}
+					text.append((char)code);
+					break;
+				default: text.append((char)c);
+			}
+		}
+	}
+
+	private boolean readBoolean() throws IOException {
+		boolean value = peek() == 't';
+		literal(value ? "true" : "false");
+		return value;
+	}
+
+	private void readNull() throws IOException {
+		literal("null");
+	}
+
+	private void literal(String s) throws IOException {
+		for(int i = 0; i < s.length(); i++) {
+			if(peek() == -1 || Character.toLowerCase((char)c) != s.charAt(i))throw unexpected(String.format("\"%s\"", s));
+			consume();
+		}
+	}
+
+	/**
+	*Read the chars of a number into a reusable buffer.
+	*/
+	private void readNumber() throws IOException {
+		numberLength = 0;
+		integral = true;
+		while(numChar(peek())) {
+			if(numberLength == number.length)number = Arrays.copyOf(number, number.length * 2);
+			if(c == '.' || c == 'e' || c == 'E')integral = false;
+			number[numberLength++] = (char)c;
+			consume();
+		}
+		if(numberLength == 0)throw unexpected("a number");
+	}
+
+	private long numberAsLong() {
+		if(!integral)return (long)numberAsDouble();
+		//Up to 18 digits can't overflow, longer numbers are left to parseLong
+		if(numberLength > 18)return Long.parseLong(new String(number, 0, numberLength));
+		int i = 0;
+		boolean negative = number[0] == '-';
+		if(negative || number[0] == '+')i++;
+		if(i == numberLength)throw new NumberFormatException(String.format("Invalid number \"%s\"", new String(number, 0, numberLength)));
+		long v = 0;
+		for(; i < numberLength; i++) {
+			int digit = number[i] - '0';
+			if(digit < 0 || digit > 9)throw new NumberFormatException(String.format("Invalid number \"%s\"", new String(number, 0, numberLength)));
+			v = v * 10 + digit;
+		}
+		return negative ? -v : v;
+	}
+
+	private double numberAsDouble() {
+		return Double.parseDouble(new String(number, 0, numberLength));
+	}
+
+	/**
+	*Move past a value without keeping it.
+	*/
+	private void skipValue() throws IOException {
+		skipWS();
+		switch(peek()) {
+			case '{':
+			case '[':
+				char close = c == '{' ? '}' : ']';
+				consume();
+				skipWS();
+				if(peek() == close) {
+					consume();
+					return;
+				}
+				while(true) {
+					if(close == '}') {
+						skipWS();
+						readString();
+						expect(':');
+					}
+					skipValue();
+					skipWS();
+					if(peek() == ',') {
+						consume();
+						continue;
+					}
+					if(c != close)throw unexpected(String.format("',' or '%c'", close));
+					consume();
+					return;
+				}
+			case '\"': readString(); return;
+			case 't': case 'f': readBoolean(); return;
+			case 'n': readNull(); return;
+			default: readNumber();
+		}
+	}
+}
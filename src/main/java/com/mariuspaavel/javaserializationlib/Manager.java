@@ -1,13 +1,16 @@
 package com.mariuspaavel.javaserializationlib;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ForkJoinPool;
 
 import java.util.*;
 import java.io.*;
 
-import com.mariuspaavel.javautilities.*;
-
 
 /**
 * A class that handles the serialization and deserialization of objects. 
@@ -17,20 +20,44 @@ import com.mariuspaavel.javautilities.*;
 * deserialized using this class. After that, no more classes can be registrated. This manager generates an id for every class 
 * that is registrated. The id based on the alphabetical order of classes registrated. In order to have working results when 
 * transmitting an object from one machine to another, the exact same set of classes must be registrated on both machines.
+* Classes that are registrated with an explicit id and the tagged format lift that restriction, see register(Class, int) and
+* setTaggedFormat.
 */
 
 public class Manager {
 	
 	private HashMap<Class, TreeMap<String, Field>> classInfo = new HashMap<Class, TreeMap<String, Field>>();
 	private TreeMap<String, Class> classesOrdered = new TreeMap<String, Class>();
+	private HashMap<Class, Integer> classIds = new HashMap<Class, Integer>();
+	private HashMap<Class, GeneratedCodec> generatedCodecs = new HashMap<Class, GeneratedCodec>();
 	
 	/**
 	*Register a class during th init phase.
 	*A class cannot be serialized or deserialized without registrating it.
 	*/
 
-	public void register(Class c) {
-		if(registrationLocked)throw new RuntimeException("Classes can only be registrated on the init phase");
+	public synchronized void register(Class c) {
+		if(registry != null)throw new RuntimeException("Classes can only be registrated on the init phase");
+		classIds.remove(c);
+		addClass(c);
+	}
+
+	/**
+	*Register a class with an explicit id during the init phase.
+	* The class id of a class that has an explicit id doesn't depend on the other registrated classes, so classes can be added 
+	* and removed without changing it. The ids must be positive and unique, ids up to about 65000 are looked up faster than larger ones.
+	*/
+	public synchronized void register(Class c, int id) {
+		if(registry != null)throw new RuntimeException("Classes can only be registrated on the init phase");
+		if(id <= 0 || id > Integer.MAX_VALUE - Registry.FIRST_CLASS_ID)throw new IllegalArgumentException(String.format("Invalid class id %d", id));
+		for(Map.Entry<Class, Integer> entry : classIds.entrySet()) {
+			if(entry.getValue() == id && !entry.getKey().equals(c))throw new IllegalArgumentException(String.format("Class id %d is already used by %s", id, entry.getKey().getName()));
+		}
+		classIds.put(c, id);
+		addClass(c);
+	}
+
+	private void addClass(Class c) {
 		TreeMap<String, Field> classFields = new TreeMap<String, Field>();
 		for(Field field  : c.getDeclaredFields())
 		{
@@ -41,10 +68,16 @@ public class Manager {
 		}
 		classInfo.put(c, classFields);
 		classesOrdered.put(c.getName(), c);
+		GeneratedCodec generated = GeneratedCodec.find(c);
+		if(generated != null) {
+			generatedCodecs.put(c, generated);
+			if(d)ds.println(String.format("Found generated codec for class %s", c.getName()));
+		}
+		else generatedCodecs.remove(c);
 		if(d)ds.println(String.format("Registrated class %s", c.getName()));
 	}
 	
-	private boolean d = false;
+	boolean d = false;
 	PrintStream ds = System.out;
 
 	/**
@@ -68,169 +101,187 @@ public class Manager {
 	}
 	
 
-	private HashMap<Class, Integer> classId = new HashMap<Class, Integer>();
-	private HashMap<Integer, Class> idClass = new HashMap<Integer, Class>();
+	private boolean compact = false;
 
-	
+	/**
+	*Choose between the fixed width and the compact binary encoding. The default is the fixed width encoding.
+	* The compact encoding writes class ids, lengths and database ids as varints and short, int and long values as zigzag varints,
+	* so small numbers take 1 or 2 bytes instead of 4 or 8. The encoding can only be chosen during the init phase and both the writing 
+	* and the reading side must use the same encoding.
+	*/
+	public synchronized void setCompactEncoding(boolean compact){
+		if(registry != null)throw new RuntimeException("The encoding can only be chosen on the init phase");
+		this.compact = compact;
+	}
 
-	
-	private boolean registrationLocked = false;
+	private boolean referenceTracking = false;
+
+	/**
+	*Turn reference tracking on or off. It is off by default.
+	* With reference tracking, a registrated object or a list that is reached a second time while serializing an object graph is written
+	* as a back reference to its first occurrence. Shared objects are then deserialized as shared objects instead of copies, and graphs
+	* with cycles can be serialized. It can only be changed during the init phase and both sides must use the same setting.
+	*/
+	public synchronized void setReferenceTracking(boolean referenceTracking){
+		if(registry != null)throw new RuntimeException("Reference tracking can only be changed on the init phase");
+		this.referenceTracking = referenceTracking;
+	}
+
+	private boolean stringDictionary = false;
+
+	/**
+	*Turn the string dictionary on or off. It is off by default.
+	* With the string dictionary, every distinct string is written only once per serialized object graph, repeated occurrences are written
+	* as a small index. Repeated strings are deserialized as one shared String instance. It can only be changed during the init phase 
+	* and both sides must use the same setting.
+	*/
+	public synchronized void setStringDictionary(boolean stringDictionary){
+		if(registry != null)throw new RuntimeException("The string dictionary can only be changed on the init phase");
+		this.stringDictionary = stringDictionary;
+	}
+
+	private boolean monomorphic = false;
+
+	/**
+	*Turn monomorphic fields on or off. They are off by default.
+	* With monomorphic fields, a field whose declared type is a final class, like String, the wrappers, the primitive arrays or a 
+	* final registrated class, is written with a one byte null flag instead of the class id of its value. The elements of a List field
+	* with a final @S(elementType=...) are written the same way. The tagged format always writes class ids.
+	* It can only be changed during the init phase and both sides must use the same setting.
+	*/
+	public synchronized void setMonomorphicFields(boolean monomorphic){
+		if(registry != null)throw new RuntimeException("Monomorphic fields can only be changed on the init phase");
+		this.monomorphic = monomorphic;
+	}
+
+	private boolean tagged = false;
+
+	/**
+	*Turn the tagged format on or off. It is off by default.
+	* In the tagged format every field is written with its id from the @S annotation, or its name if it has no id, and the length of its value.
+	* A reader skips the fields it doesn't know without deserializing them and leaves the fields that weren't written at their default
+	* values, so fields can be added and removed without breaking stored data or peers that run an older version of the classes.
+	* It can only be changed during the init phase and both sides must use the same setting.
+	*/
+	public synchronized void setTaggedFormat(boolean tagged){
+		if(registry != null)throw new RuntimeException("The format can only be chosen on the init phase");
+		this.tagged = tagged;
+	}
+
+	private volatile Registry registry;
 	
 	/**
 	*End the initialization phase of the manager.
 	* After that no more classes can be registrated. This method triggers automatically when an object is passed to the serialization or deserialization methods.
+	* Locking freezes the registrated classes into an immutable registry, so after that the same manager can be used by any number of threads at the same time.
 	*/
 
 	public void lockInitialization() {
-		if(registrationLocked)return;
-		registrationLocked = true;
-		
-		classId.put(Boolean.class, 1);
-		idClass.put(1, Boolean.class);
-		
-		classId.put(Byte.class, 2);
-		idClass.put(2, Byte.class);
-			
-		classId.put(Short.class, 3);
-		idClass.put(3, Short.class);
-	
-		classId.put(Integer.class, 4);
-		idClass.put(4, Integer.class);
-		
-		classId.put(Long.class, 5);
-		idClass.put(5, Long.class);
-
-		classId.put(Float.class, 6);
-		idClass.put(6, Float.class);
-			
-		classId.put(Double.class, 7);
-		idClass.put(7, Double.class);	
-
-		classId.put(String.class, 8);
-		idClass.put(8, String.class);
-		
-		classId.put(ArrayList.class, 9);
-		idClass.put(9, ArrayList.class);
-		
-		int id = 10;
-		for(String name : classesOrdered.keySet()) {
-			classId.put(classesOrdered.get(name), id);
-			idClass.put(id, classesOrdered.get(name));
+		if(registry != null)return;
+		synchronized(this) {
+			if(registry != null)return;
+			registry = new Registry(this, compact, referenceTracking, stringDictionary, tagged, monomorphic, classesOrdered, classInfo, classIds, generatedCodecs);
+			if(d)ds.println("Registration locked");
 		}
-		if(d)ds.println("Registration locked");
-		
 	}
+
+	/**
+	*Get the frozen registry, locking the initialization if it hasn't been done yet.
+	*/
+	Registry registry() {
+		Registry r = registry;
+		if(r == null) {
+			lockInitialization();
+			r = registry;
+		}
+		return r;
+	}
+
+	/**
+	*Get a fingerprint of the binary format of this manager.
+	* It covers the format version, the options and the ids, names and fields of the registrated classes. Two managers can read
+	* each others data in the untagged format if their fingerprints are equal, so peers can compare them before they exchange objects.
+	* Calling this method locks the initialization.
+	*/
+	public long getSchemaFingerprint() {
+		return registry().fingerprint;
+	}
+
+	/**
+	*Get the fixed-width record layout of a registrated class that has only primitive @S fields.
+	* Calling this method locks the initialization.
+	*/
+	public <T> StructLayout<T> structLayout(Class<T> c) {
+		TypeCodec codec = registry().codecFor(c);
+		if(!(codec instanceof ClassCodec))throw new RuntimeException(String.format("Class %s is not registrated", c.getName()));
+		return new StructLayout<T>((ClassCodec)codec);
+	}
+
 	TreeMap<String, Field> getClassFields(Class c){
-		return classInfo.get(c);
+		Registry r = registry;
+		if(r != null)return r.classInfo.get(c);
+		synchronized(this) {
+			return classInfo.get(c);
+		}
 	}
 	
 	
-	private void fieldToBytes(Field f, Object o, OutputStream stream)  {
-		lockInitialization();
-		Class c = f.getType();
-		
-		if(d)ds.println(String.format("Serializing field \"%s\" type \"%s\"", f.getName(), c.getName()));
+	/**
+	*Write an object to an output stream as octets.
+	* In order for this method to work, the class must be registrated and have to be serialized fields marked with the @S annotation
+	* Once more than 64 KiB have been serialized, the data is passed on to the stream in chunks instead of being collected in memory.
+	* @param o The object that is to be serialized.
+	* @param stream The OutputStream where the object is written.
+	*/
 
+	public void ObjectToBytes(Object o, OutputStream stream) {
+		//Large values are passed on to the stream while they are written, except in the tagged format which patches lengths
+		ByteOutput out = registry().tagged ? new ByteOutput() : new ByteOutput(stream);
+		write(o, out);
 		try {
-			if(c.equals(boolean.class)){
-				NumberSerializer.writeBoolean(f.getBoolean(o), stream);
-			}
-			else if(c.equals(byte.class)) {
-				NumberSerializer.writeByte(f.getByte(o), stream);
-			}
-			else if(c.equals(short.class)){
-				NumberSerializer.writeShort(f.getShort(o), stream);
-			}
-			else if(c.equals(int.class)) {
-				NumberSerializer.writeInt(f.getInt(o), stream);
-			}
-			else if(c.equals(long.class)) {
-				NumberSerializer.writeLong(f.getLong(o), stream);
-			}
-			else if(c.equals(float.class)){
-				NumberSerializer.writeFloat(f.getFloat(o), stream);
-			}
-			else if(c.equals(double.class)){
-				NumberSerializer.writeDouble(f.getDouble(o), stream);
-			}
-			
-			else {
-				ObjectToBytes(f.get(o), stream);
-			}
-		}catch(IOException | IllegalArgumentException | IllegalAccessException e) {
+			out.writeTo(stream);
+		}catch(IOException e) {
 			e.printStackTrace();
 			throw new SerializationException(e.getMessage());
 		}
-		
 	}
-		
+
 	/**
-	*Write an object to an output stream as octets.
-	* In order for this method to work, the class must be registrated and have to be serialized fields marked with the @S annotation
+	*Write an object to a reusable output buffer.
+	* The object is appended to the data that is already in the buffer. Once the buffer has grown to its working size, 
+	* serializing an object this way doesn't allocate any memory.
 	* @param o The object that is to be serialized.
-	* @param stream The OutputStream where the object is written.
+	* @param out The buffer where the object is written.
 	*/
-
-	public void ObjectToBytes(Object o, OutputStream stream) {
-		lockInitialization();
-		
+	public void write(Object o, ByteOutput out) {
+		Registry r = registry();
 		try {
-			if(o == null){
-				stream.write(0);
-				return;
-			}
-			Class c = o.getClass();
-			
-			if(d)ds.println(String.format("Serializing class %s", c.getName()));
-		
-			Integer inputClassId = classId.get(c);
-			if(inputClassId == null)throw new RuntimeException(String.format("Class %s hasn't been registrated.", c.getName()));	
-			stream.write(NumberSerializer.intToByteArray(classId.get(c)));
-			
-			if(c.equals(Byte.class)) {
-				stream.write(new byte[] {(Byte)o});
-			}
-			else if(c.equals(Integer.class)) {
-				stream.write(NumberSerializer.intToByteArray((Integer)o));
-			}
-			else if(c.equals(Long.class)) {
-				stream.write(NumberSerializer.longToByteArray((Long)o));
-			}
-			else if(c.equals(String.class)) {
-				byte[] strbytes = ((String)o).getBytes();
-				stream.write(NumberSerializer.intToByteArray(strbytes.length));
-				stream.write(strbytes);
-			}
-			else if(c.equals(byte[].class)) {
-				byte[] bytes = (byte[])o;
-				stream.write(NumberSerializer.intToByteArray(bytes.length));
-				stream.write(bytes);
-			}
-			else if(List.class.isAssignableFrom(c)) {
-				List l = (List)o;
-				stream.write(NumberSerializer.intToByteArray(l.size()));
-				for(Object elem : l) {
-					ObjectToBytes(elem, stream);
-				}
-			}
-			else  {
-				TreeMap<String, Field> fields = classInfo.get(c);
-				if(fields == null)throw new RuntimeException(String.format("Class %s isn't registrated", c.getName()));
-				if(o instanceof DBObject){
-					int dbid = ((DBObject)o).getMeta().getId();
-					stream.write(NumberSerializer.intToByteArray(dbid));
-				}
-				for(String fname: fields.keySet()) {
-					Field f = fields.get(fname);
-					fieldToBytes(f, o, stream);
-				}
-			}
-		}catch( IllegalArgumentException | IOException e) {
+			r.writeObject(o, new Encoder(r, out));
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
 			e.printStackTrace();
 			throw new SerializationException(e.getMessage());
 		}
 	}
-	
+
+	/**
+	*Write an object to a ByteBuffer starting at its current position.
+	* The position of the buffer is advanced past the written object. 
+	* A BufferOverflowException is thrown when the object doesn't fit in the remaining space of the buffer.
+	* @param o The object that is to be serialized.
+	* @param buf The buffer where the object is written.
+	*/
+	public void write(Object o, ByteBuffer buf) {
+		ByteOrder order = buf.order();
+		buf.order(ByteOrder.BIG_ENDIAN);
+		try {
+			write(o, new ByteOutput(buf));
+		}finally {
+			buf.order(order);
+		}
+	}
+
 	/**
 	*Deserializes an octet stream to an object.
 	* In order for this to work, to be serialized fields must be marked by the @S annotation and the object must be registrated.
@@ -239,258 +290,407 @@ public class Manager {
 	*/
 	
 	public Object bytesToObject(InputStream stream) {
-		lockInitialization();
-		
-		byte[] buf = new byte[4];
+		return read(new ByteInput.StreamInput(stream));
+	}
+
+	/**
+	*Deserializes only some of the fields of an object from an octet stream.
+	* The other fields are skipped without being deserialized. Field names that the class of the object doesn't have are ignored.
+	* @param stream The stream from which the object is read.
+	* @param fields The names of the @S fields that are deserialized.
+	* @return The deserialized object.
+	*/
+	public Object bytesToObject(InputStream stream, Set<String> fields) {
+		return read(new ByteInput.StreamInput(stream), new Projection(fields));
+	}
+
+	/**
+	*Deserializes only the fields selected by a precompiled projection from an octet stream.
+	* @param stream The stream from which the object is read.
+	* @param projection The fields that are deserialized.
+	* @return The deserialized object.
+	*/
+	public Object bytesToObject(InputStream stream, Projection projection) {
+		return read(new ByteInput.StreamInput(stream), projection);
+	}
+
+	/**
+	*Deserializes an object from a ByteBuffer starting at its current position.
+	* The position of the buffer is advanced past the read object.
+	* @param buf The buffer from which the object is read.
+	* @return The deserialized object.
+	*/
+	public Object read(ByteBuffer buf) {
+		ByteOrder order = buf.order();
+		buf.order(ByteOrder.BIG_ENDIAN);
 		try {
-			stream.read(buf);
-			int serialid = NumberSerializer.byteArrayToInt(buf);
-			if(serialid == 0)return null;
-			Class c = idClass.get(serialid);
-			if(c == null)throw new RuntimeException(String.format("No class registrated with an id of %d", serialid));
-			if(d)ds.println(String.format("Deserializing class %s", c.getName()));		
-
-			if(c.equals(Boolean.class))return NumberSerializer.readBoolean(stream);
-			else if(c.equals(Byte.class))return NumberSerializer.readByte(stream);
-			else if(c.equals(Short.class))return NumberSerializer.readShort(stream);
-			else if(c.equals(Integer.class))return NumberSerializer.readInt(stream);
-			else if(c.equals(Long.class))return NumberSerializer.readLong(stream);
-			else if(c.equals(String.class)) {
-				int length = NumberSerializer.readInt(stream);
-				buf = new byte[length];
-				stream.read(buf);
-				return new String(buf);
-			}
-			else if(c.equals(byte[].class)) {
-				int length = NumberSerializer.readInt(stream);
-				buf = new byte[length];
-				stream.read(buf);
-				return buf;
-			}
-			else if(List.class.isAssignableFrom(c)) {
-				int length = NumberSerializer.readInt(stream);
-				List l = (List)c.getDeclaredConstructor().newInstance();
-				for(int i = 0; i < length; i++) {
-					l.add(bytesToObject(stream));
-				}
-				return l;
-			}
-			else {
-				Object o = c.getDeclaredConstructor().newInstance();
-				TreeMap<String, Field> cinf = classInfo.get(c);
-	
-				if(o instanceof DBObject){
-					((DBObject)o).getMeta().id = NumberSerializer.readInt(stream);
-				}
-				
-				for(Field f : cinf.values()) {
-					if(f.getType().equals(byte.class)) {
-						buf = new byte[1];
-						stream.read(buf);
-						f.setByte(o, buf[0]);
-					}
-					if(f.getType().equals(boolean.class))f.setBoolean(o, NumberSerializer.readBoolean(stream));
-					else if(f.getType().equals(byte.class))f.setByte(o, NumberSerializer.readByte(stream));
-					else if(f.getType().equals(short.class))f.setShort(o, NumberSerializer.readShort(stream));
-					else if(f.getType().equals(int.class))f.setInt(o, NumberSerializer.readInt(stream));
-					else if(f.getType().equals(long.class))f.setLong(o, NumberSerializer.readLong(stream));
-					else if(f.getType().equals(float.class))f.setFloat(o, NumberSerializer.readFloat(stream));
-					else if(f.getType().equals(double.class))f.setDouble(o, NumberSerializer.readDouble(stream));
-					else {
-						bytesToObject(stream);
-					}
-				}
-				return o;
-			} 
-		}catch( IOException | InstantiationException | IllegalAccessException | NoSuchMethodException | SecurityException | IllegalArgumentException | InvocationTargetException e) {
+			return read(new ByteInput.BufferInput(buf));
+		}finally {
+			buf.order(order);
+		}
+	}
+
+	/**
+	*Deserializes only the fields selected by a precompiled projection from a ByteBuffer starting at its current position.
+	* @param buf The buffer from which the object is read.
+	* @param projection The fields that are deserialized.
+	* @return The deserialized object.
+	*/
+	public Object read(ByteBuffer buf, Projection projection) {
+		ByteOrder order = buf.order();
+		buf.order(ByteOrder.BIG_ENDIAN);
+		try {
+			return read(new ByteInput.BufferInput(buf), projection);
+		}finally {
+			buf.order(order);
+		}
+	}
+
+	/**
+	*Deserializes an object from an octet stream into an existing instance.
+	* The @S fields of the target are overwritten. The nested objects, lists and primitive arrays the target already holds are 
+	* reused where the serialized value has the same type, everything else is created anew. The objects the target holds must not be
+	* shared with other objects, because they are overwritten in place.
+	* @param stream The stream from which the object is read.
+	* @param target The object that is read into, the serialized object must be of exactly the same class.
+	* @return The target.
+	*/
+	public <T> T readInto(InputStream stream, T target) {
+		return readInto(new ByteInput.StreamInput(stream), target);
+	}
+
+	/**
+	*Deserializes an object from a ByteBuffer starting at its current position into an existing instance, see readInto(InputStream, Object).
+	*/
+	public <T> T readInto(ByteBuffer buf, T target) {
+		ByteOrder order = buf.order();
+		buf.order(ByteOrder.BIG_ENDIAN);
+		try {
+			return readInto(new ByteInput.BufferInput(buf), target);
+		}finally {
+			buf.order(order);
+		}
+	}
+
+	/**
+	*Deserializes an object from an octet stream, taking the instances of registrated classes from a pool.
+	* A pooled instance is overwritten like the target of readInto, so the objects it holds are reused as well.
+	* @param stream The stream from which the object is read.
+	* @param pool The pool that the deserialized object should be released to once it is no longer needed.
+	* @return The deserialized object.
+	*/
+	public Object bytesToObject(InputStream stream, ObjectPool pool) {
+		return read(new ByteInput.StreamInput(stream), pool);
+	}
+
+	/**
+	*Deserializes an object from an octet stream, handing large byte arrays and strings over to a sink as they are read.
+	* The values that the sink accepts are never held in memory as a whole, their fields are left null.
+	* @param stream The stream from which the object is read.
+	* @param sink The sink that large values are offered to.
+	* @return The deserialized object.
+	*/
+	public Object bytesToObject(InputStream stream, BlobSink sink) {
+		Registry r = registry();
+		try {
+			Decoder d = new Decoder(r, new ByteInput.StreamInput(stream));
+			d.sink = sink;
+			return r.readObject(d);
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
 			e.printStackTrace();
 			throw new SerializationException(e.getMessage());
 		}
 	}
 
-	private JsonMap jsonInstance;
-	private JsonMap getJsonInstance(){
-		if(jsonInstance != null)return jsonInstance;
-		else{
-			jsonInstance = new JsonMap();
-			jsonInstance.d = d;
-			jsonInstance.ds = ds;
-			return jsonInstance;
+	/**
+	*Deserializes an object from a ByteBuffer, taking the instances of registrated classes from a pool.
+	*/
+	public Object read(ByteBuffer buf, ObjectPool pool) {
+		ByteOrder order = buf.order();
+		buf.order(ByteOrder.BIG_ENDIAN);
+		try {
+			return read(new ByteInput.BufferInput(buf), pool);
+		}finally {
+			buf.order(order);
 		}
 	}
-	
+
+	private <T> T readInto(ByteInput in, T target) {
+		if(target == null)throw new NullPointerException("The target is null");
+		Registry r = registry();
+		try {
+			Decoder d = new Decoder(r, in);
+			d.reuse = true;
+			Object o = r.readObjectInto(d, target);
+			if(o != target)throw new SerializationException(String.format("Expected an object of class %s", target.getClass().getName()));
+			return target;
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
+		}
+	}
+
+	private Object read(ByteInput in, ObjectPool pool) {
+		Registry r = registry();
+		try {
+			Decoder d = new Decoder(r, in);
+			d.reuse = true;
+			d.pool = pool;
+			return r.readObject(d);
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
+		}
+	}
+
+	private Object read(ByteInput in) {
+		return read(in, (Projection)null);
+	}
+
+	private Object read(ByteInput in, Projection projection) {
+		Registry r = registry();
+		try {
+			Decoder d = new Decoder(r, in);
+			return projection == null ? r.readObject(d) : r.readObject(d, projection);
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
+		}
+	}
+
 	/**
-	*Writes an object to an output stream as JSON. 
-	* In order for this to work, to be serialized fields must be marked with the @S annotation and the class must be registrated.
-	* @param o The object to be registrated.
-	* @param os The stream where the JSON object is written.
-	*/	
-	
-	public void writeJson(Object o, OutputStream os) throws IOException{
-		lockInitialization();
-		PrintStream ps = new PrintStream(os);
-		Object flatObject = flattenObject(o);
-		if(d)ds.println("Writing json");
-		getJsonInstance().writeObject(flatObject, ps);
+	*Write an object to a channel as one record of the form that ObjectStreamWriter uses.
+	* The object is serialized into a buffer first and then written with as few channel writes as possible. The channel must be 
+	* in blocking mode. Use AsyncRecordChannel for asynchronous channels.
+	* @param o The object that is to be serialized.
+	* @param channel The channel where the record is written.
+	*/
+	public void writeRecord(Object o, WritableByteChannel channel) throws IOException {
+		ByteOutput out = new ByteOutput();
+		out.writeInt(0);
+		write(o, out);
+		out.patchInt(0, out.size() - 4);
+		ByteBuffer buf = out.written();
+		while(buf.hasRemaining())channel.write(buf);
 	}
-	
+
 	/**
-	*Reads a JSON object from an input stream.
-	* The class name must be included as a "className" value that is assigned the full name of the class including the package.
-	* In order for this to work, to be serialized fields must be marked with the @S annotation and the class must be registrated.	
+	*Read one record that was written by writeRecord or ObjectStreamWriter from a channel in blocking mode.
+	* @param channel The channel from which the record is read.
+	* @return The deserialized object.
+	* @throws EOFException If the channel ends before a whole record was read.
 	*/
-	public Object readJson(InputStream is) throws IOException{
-		lockInitialization();
-		if(d)ds.println("Reading json");
-		InputStreamReader ir = new InputStreamReader(is);
-		Object flatObject = getJsonInstance().readObject(ir);
-		Object o = inflateObject(flatObject);
+	public Object readRecord(ReadableByteChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(4);
+		readFully(channel, header);
+		int length = header.getInt(0);
+		if(length < 0)throw new SerializationException(String.format("Invalid record length %d", length));
+		ByteBuffer record = ByteBuffer.allocate(length);
+		readFully(channel, record);
+		record.flip();
+		Object o = read(record);
+		if(record.hasRemaining())throw new SerializationException("Record contains more data than the object");
 		return o;
 	}
 
+	private static void readFully(ReadableByteChannel channel, ByteBuffer buf) throws IOException {
+		while(buf.hasRemaining()) {
+			if(channel.read(buf) == -1)throw new EOFException();
+		}
+	}
 
-	private Map<String, Object> flattenClass(Object o){
-		if(d)ds.println("Flattening class");
-		Map<String, Object> map = new HashMap<String, Object>();
-		Class cl = o.getClass();
-		TreeMap<String, Field> fields = getClassFields(cl);
-		if(fields == null)throw new IllegalArgumentException("Unknown class");
-		
-		map.put("className", cl.getName());
-		if(o instanceof DBObject)map.put("dbid", ((DBObject)o).getMeta().getId());
+	/**
+	*Serialize a list of objects in parallel and write them to a stream as records that ObjectStreamReader can read.
+	* The list is split into chunks that are serialized on the threads of a shared fork/join pool with one thread per core.
+	* @param objects The objects that are serialized, in the order they are written.
+	* @param stream The stream where the records are written.
+	*/
+	public void serializeAll(List<?> objects, OutputStream stream) {
+		serializeAll(objects, stream, Batch.defaultPool());
+	}
 
-		try{
-			for(String s: fields.keySet()){
-				Field f = fields.get(s);
-				Class fieldType = f.getType();
-
-				if(fieldType.equals(boolean.class))map.put(s, f.getBoolean(o));
-				else if(fieldType.equals(byte.class))map.put(s, new Long(f.getByte(o)));
-				else if(fieldType.equals(short.class))map.put(s, new Long(f.getShort(o)));
-				else if(fieldType.equals(int.class))map.put(s, new Long(f.getInt(o)));
-				else if(fieldType.equals(long.class))map.put(s, f.getLong(o));
-				else if(fieldType.equals(float.class))map.put(s, new Double(f.getFloat(o)));
-				else if(fieldType.equals(double.class))map.put(s, f.getDouble(o));
-
-				map.put(s, flattenObject(f.get(o)));
-			}
-		}catch(IllegalAccessException e){
+	/**
+	*Serialize a list of objects in parallel on the given fork/join pool.
+	*/
+	public void serializeAll(List<?> objects, OutputStream stream, ForkJoinPool pool) {
+		lockInitialization();
+		try {
+			Batch.write(this, objects, stream, pool);
+		}catch(IOException e) {
 			e.printStackTrace();
-			throw new RuntimeException("Class flattening failed");
+			throw new SerializationException(e.getMessage());
 		}
-		return map;
-	}	
+	}
 
-	private List<Object> flattenList(List<Object> inputList){
-		List<Object> outputList = new ArrayList<Object>();
-		for(Object inputObject : inputList){
-			outputList.add(flattenObject(inputObject));
+	/**
+	*Read all the records of a stream and deserialize them in parallel.
+	* The records are read one window at a time and split on their boundaries among the threads of a shared fork/join pool.
+	* @param stream The stream of records written by serializeAll or ObjectStreamWriter.
+	* @return The deserialized objects in the order of the records.
+	*/
+	public List<Object> deserializeAll(InputStream stream) {
+		return deserializeAll(stream, Batch.defaultPool());
+	}
+
+	/**
+	*Read all the records of a stream and deserialize them in parallel on the given fork/join pool.
+	*/
+	public List<Object> deserializeAll(InputStream stream, ForkJoinPool pool) {
+		lockInitialization();
+		return Batch.read(this, stream, pool);
+	}
+
+	/**
+	*Write only the @S fields of an object that changed since a previous version of it.
+	* The delta is the class id, a bitmap of the fields whose serialized values differ between the two versions and the new values 
+	* of those fields. A field counts as changed when its serialized form changed, so changes inside nested objects, lists and arrays
+	* are found as well. Values are written as a graph of their own, objects that they share with unchanged fields are copied.
+	* Both sides need the same @S fields, also in the tagged format.
+	* @param base The version of the object that the reader already has.
+	* @param current The new version, an instance of the same registrated class.
+	* @param stream The stream where the delta is written.
+	*/
+	public void writeDelta(Object base, Object current, OutputStream stream) {
+		if(base == null || current == null)throw new NullPointerException("Deltas can't be written from or to null");
+		if(base.getClass() != current.getClass())throw new IllegalArgumentException(String.format("Can't write a delta from %s to %s", base.getClass().getName(), current.getClass().getName()));
+		Registry r = registry();
+		TypeCodec codec = r.codecFor(current.getClass());
+		if(!(codec instanceof ClassCodec))throw new RuntimeException(String.format("Class %s is not registrated", current.getClass().getName()));
+		ByteOutput out = new ByteOutput();
+		try {
+			r.writeLength(codec.id, out);
+			((ClassCodec)codec).writeDelta(base, current, new Encoder(r, out));
+			out.writeTo(stream);
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
 		}
-		return outputList;
-
-	}
-	private Object flattenNumber(Object inputNumber){
-		Class type = inputNumber.getClass();	
-
-		if(inputNumber instanceof Byte){
-			return new Long(((Byte)inputNumber).byteValue());
-		}else if(inputNumber instanceof Short){
-			return new Long(((Short)inputNumber).shortValue());
-		}else if(inputNumber instanceof Integer){
-			return new Long(((Integer)inputNumber).intValue());
-		}else if(inputNumber instanceof Long){
-			return inputNumber;
-		}else if(inputNumber instanceof Float){
-			return new Double(((Float)inputNumber).floatValue());
-		}else if(inputNumber instanceof Double){
-			return inputNumber;
-		}else if(inputNumber instanceof Boolean){
-			return inputNumber;
+	}
+
+	/**
+	*Read a delta that was written by writeDelta and apply it to the base object.
+	* The changed fields are assigned new values, the other fields are left as they are.
+	* @param stream The stream from which the delta is read.
+	* @param base The version of the object that the delta was computed from.
+	* @return The base object.
+	*/
+	public <T> T readDelta(InputStream stream, T base) {
+		if(base == null)throw new NullPointerException("The base is null");
+		Registry r = registry();
+		try {
+			Decoder d = new Decoder(r, new ByteInput.StreamInput(stream));
+			int serialid = r.readLength(d.in);
+			TypeCodec codec = r.codecFor(serialid);
+			if(codec == null || codec.type != base.getClass())throw new SerializationException(String.format("The delta is not for an object of class %s", base.getClass().getName()));
+			if(this.d)ds.println(String.format("Applying a delta to class %s", codec.type.getName()));
+			((ClassCodec)codec).readDelta(d, base);
+			return base;
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
 		}
-		else throw new RuntimeException(String.format("Error flattening number: %s is not a numeral type", inputNumber.getClass().toString()));
-	}
-	private Object flattenObject(Object inputObject){
-		if(d)ds.println("flattening object");
-		if(inputObject == null)return null;
-		else if(inputObject instanceof String)return inputObject;	
-		else if(inputObject instanceof List)return flattenList((List)inputObject);
-		else if(inputObject instanceof Number)return flattenNumber((Number)inputObject);
-		else if(classId.containsKey(inputObject.getClass()))return flattenClass(inputObject);
-		else return inputObject.toString();
-	}
-
-	private Object inflateClass(Map<String, Object> input){
-		if(d)ds.println("inflating class");
-		String className = (String)input.get("className");
-		if(d)ds.println(String.format("Class name: %s", className));
-		Class cl = classesOrdered.get(className);
-		if(cl == null)throw new RuntimeException(String.format("Class \"%s\" not registrated", className));
-		Object output = null;
-		try{
-			output = cl.getDeclaredConstructor().newInstance();
-		}catch(NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e){
+	}
+
+	/**
+	*Write a list of objects of one registrated class as a columnar batch.
+	* Every @S field is written as its own column with the encoding that makes it the smallest, see Columns. Lists of many similar 
+	* rows take much less space this way than as a list of objects, and readColumns can deserialize only the columns it needs.
+	* @param objects The rows, all of them must be instances of exactly the class c.
+	* @param c The class of the rows.
+	* @param stream The stream where the batch is written.
+	*/
+	public void writeColumns(List<?> objects, Class c, OutputStream stream) {
+		Registry r = registry();
+		TypeCodec codec = r.codecFor(c);
+		if(!(codec instanceof ClassCodec))throw new RuntimeException(String.format("Class %s is not registrated", c.getName()));
+		ByteOutput out = new ByteOutput();
+		try {
+			Columns.write(r, (ClassCodec)codec, objects, new Encoder(r, out));
+			out.writeTo(stream);
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
 			e.printStackTrace();
-			throw new RuntimeException("Failed to inflate class");
+			throw new SerializationException(e.getMessage());
 		}
-		TreeMap<String, Field> cinf = classInfo.get(cl);
+	}
 
-		if(output instanceof DBObject){
-			((DBObject)output).getMeta().id = (int)((Long)input.get("dbid")).longValue();
+	/**
+	*Read a columnar batch that was written by writeColumns.
+	* @return The rows in the order they were written.
+	*/
+	public List<Object> readColumns(InputStream stream) {
+		return readColumns(stream, null);
+	}
+
+	/**
+	*Read a columnar batch but deserialize only the columns of the fields selected by a projection, the other columns are skipped.
+	* @param projection The fields to deserialize, or null for all of them.
+	*/
+	public List<Object> readColumns(InputStream stream, Projection projection) {
+		Registry r = registry();
+		try {
+			return Columns.read(r, new Decoder(r, new ByteInput.StreamInput(stream)), projection);
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
 		}
-		
+	}
+
+	/**
+	*Writes an object to an output stream as JSON encoded in UTF-8.
+	* The fields are written straight from the object, see JsonBinder for the format.
+	* In order for this to work, to be serialized fields must be marked with the @S annotation and the class must be registrated.
+	* @param o The object to be registrated.
+	* @param os The stream where the JSON object is written.
+	*/	
+	
+	public void writeJson(Object o, OutputStream os) throws IOException{
+		Registry r = registry();
+		if(d)ds.println("Writing json");
+		Writer w = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
 		try{
-			for(String fieldName : cinf.keySet()){
-				if(fieldName.equals("className"))continue;
-				Object inputObject = input.get(fieldName);
-				if(inputObject == null)continue;
-				Field field = cinf.get(fieldName);
-				Class fieldType = field.getType();
-				
-				if(fieldType.equals(byte.class))field.setByte(output, (byte)((Long)inputObject).longValue());
-				else if(fieldType.equals(short.class))field.setShort(output, (short)((Long)inputObject).longValue());
-				else if(fieldType.equals(int.class))field.setInt(output, (int)((Long)inputObject).longValue());
-				else if(fieldType.equals(long.class))field.setLong(output, ((Long)inputObject).longValue());
-				else if(fieldType.equals(float.class))field.setFloat(output, (float)((Double)inputObject).doubleValue());
-				else if(fieldType.equals(double.class))field.setDouble(output, ((Double)inputObject).doubleValue());
-				else if(fieldType.equals(boolean.class))field.setBoolean(output, ((Boolean)inputObject).booleanValue());
-				
-				else{
-					if(inputObject == null)field.set(output, null);
-					else if(fieldType.equals(Byte.class))field.set(output, new Byte((byte)((Long)inputObject).longValue()));
-					else if(fieldType.equals(Short.class))field.set(output, new Short((short)((Long)inputObject).longValue()));
-					else if(fieldType.equals(Integer.class))field.set(output, new Integer((int)((Long)inputObject).longValue()));
-					else if(fieldType.equals(Long.class))field.set(output, (Long)inputObject);
-					else if(fieldType.equals(Float.class))field.set(output, new Float((float)((Double)inputObject).doubleValue()));
-					else if(fieldType.equals(Double.class))field.set(output, new Double(((Double)inputObject).doubleValue()));
-					else if(fieldType.equals(Boolean.class))field.set(output, (Boolean)inputObject);
-			
-					else{
-						Object inflatedObject = inflateObject(inputObject);
-						field.set(output, inflatedObject);
-					}
-				}
-			}
-		}catch(IllegalAccessException e){
+			new JsonBinder(r).write(o, w);
+		}catch(IOException | RuntimeException e){
+			throw e;
+		}catch(Throwable e){
 			e.printStackTrace();
-			throw new RuntimeException("Failed to inflate class");
+			throw new SerializationException(e.getMessage());
 		}
-		if(d)ds.println("Inflating class finished");
-		return output;
-	}
-	private List<Object> inflateList(List<Object> inputList){
-		if(d)ds.println("Inflating list");
-		List<Object> output = new ArrayList<Object>();
-		for(Object o : inputList){
-			output.add(inflateObject(o));
+		w.flush();
+	}
+	
+	/**
+	*Reads a JSON object encoded in UTF-8 from an input stream.
+	* The class name must be included as a "className" value that is assigned the full name of the class including the package.
+	* The values are assigned straight to the fields of the object as they are parsed.
+	* In order for this to work, to be serialized fields must be marked with the @S annotation and the class must be registrated.	
+	*/
+	public Object readJson(InputStream is) throws IOException{
+		Registry r = registry();
+		if(d)ds.println("Reading json");
+		try{
+			return new JsonBinder(r).read(new InputStreamReader(is, "UTF-8"));
+		}catch(IOException | RuntimeException e){
+			throw e;
+		}catch(Throwable e){
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
 		}
-		return output;
-	}
-	private Object inflateObject(Object input){
-		if(d)ds.println("Inflating object");
-		if(input == null)return null;
-		if(input instanceof Map)return inflateClass((Map<String, Object>)input);
-		else if(input instanceof List)return inflateList((List)input);
-		else return input; 
 	}
 	
 }
@@ -0,0 +1,91 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*A file that is memory-mapped in segments of a fixed size.
+* Segments are mapped when they are first used. A writable file maps whole segments, which extends the file, so the owner has to
+* truncate it to its real size when it is closed. A read-only file maps the last segment only up to the end of the file.
+*/
+class MappedFile implements Closeable {
+
+	private final FileChannel channel;
+	private final boolean readOnly;
+	private final int segmentSize;
+	private final ArrayList<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	MappedFile(Path path, boolean readOnly, int segmentSize) throws IOException {
+		this.readOnly = readOnly;
+		this.segmentSize = segmentSize;
+		if(readOnly)channel = FileChannel.open(path, StandardOpenOption.READ);
+		else channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+	}
+
+	/**
+	*Get a mapped segment. The buffer is shared, callers must use absolute access or a duplicate.
+	*/
+	synchronized ByteBuffer segment(int index) throws IOException {
+		while(segments.size() <= index)segments.add(null);
+		MappedByteBuffer segment = segments.get(index);
+		if(segment == null) {
+			long start = (long)index * segmentSize;
+			if(readOnly) {
+				long size = Math.min(segmentSize, channel.size() - start);
+				if(size <= 0)throw new EOFException(String.format("Segment %d is past the end of the file", index));
+				segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+			}
+			else segment = channel.map(FileChannel.MapMode.READ_WRITE, start, segmentSize);
+			segments.set(index, segment);
+		}
+		return segment;
+	}
+
+	/**
+	*Read bytes at a position of the file without mapping it.
+	*/
+	ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		while(buf.hasRemaining()) {
+			if(channel.read(buf, position + buf.position()) == -1)throw new EOFException();
+		}
+		buf.flip();
+		return buf;
+	}
+
+	long size() throws IOException {
+		return channel.size();
+	}
+
+	/**
+	*Write the changes of the mapped segments to the disk.
+	*/
+	synchronized void force() {
+		for(MappedByteBuffer segment : segments) {
+			if(segment != null)segment.force();
+		}
+	}
+
+	/**
+	*Drop the references to the mapped segments so that they can be unmapped. The segments must not be used afterwards.
+	*/
+	synchronized void release() {
+		segments.clear();
+	}
+
+	/**
+	*Cut the file to its real size. The segments must not be used afterwards.
+	*/
+	void truncate(long size) throws IOException {
+		channel.truncate(size);
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,50 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.util.*;
+
+/**
+*A pool of instances of registrated classes that the Manager deserializes into instead of creating new instances.
+* Objects that are no longer needed are given back with release. When an object is taken from the pool, its @S fields are overwritten
+* and the nested objects, lists and arrays it still holds are reused where their types match, so a message that is decoded and 
+* discarded in a loop doesn't allocate once the pool is warm. An object must not be used after it has been released.
+*/
+public class ObjectPool {
+
+	private final int maxPerClass;
+	private final HashMap<Class, ArrayDeque<Object>> free = new HashMap<Class, ArrayDeque<Object>>();
+
+	/**
+	*Create a pool that keeps at most 64 instances of every class.
+	*/
+	public ObjectPool() {
+		this(64);
+	}
+
+	/**
+	*@param maxPerClass The number of released instances of one class that are kept, more are left to the garbage collector.
+	*/
+	public ObjectPool(int maxPerClass) {
+		this.maxPerClass = maxPerClass;
+	}
+
+	/**
+	*Give an object back to the pool.
+	*/
+	public synchronized void release(Object o) {
+		if(o == null)return;
+		ArrayDeque<Object> instances = free.get(o.getClass());
+		if(instances == null) {
+			instances = new ArrayDeque<Object>();
+			free.put(o.getClass(), instances);
+		}
+		if(instances.size() < maxPerClass)instances.push(o);
+	}
+
+	/**
+	*Take an instance of a class from the pool, or null if there is none.
+	*/
+	synchronized Object acquire(Class c) {
+		ArrayDeque<Object> instances = free.get(c);
+		return instances == null ? null : instances.poll();
+	}
+}
@@ -0,0 +1,169 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.nio.ByteBuffer;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*Reads the records written by ObjectStreamWriter one at a time.
+* Only one record is held in memory at a time, so arbitrarily long streams can be processed. The end of the stream is only accepted 
+* between two records, a stream that ends in the middle of a record causes a SerializationException.
+*/
+public class ObjectStreamReader implements Iterator<Object>, Closeable {
+
+	private final Manager mg;
+	private final InputStream stream;
+	private final int maxRecordSize;
+	private final Compression compression;
+	private final byte[] header = new byte[4];
+	private byte[] buf = new byte[256];
+	private byte[] plain;
+
+	//The length of the record whose header has been read, -1 when no header has been read yet.
+	private int pending = -1;
+	private boolean ended = false;
+
+	/**
+	*Create a reader that reads records from a stream.
+	* @param mg The manager that deserializes the objects, it must have the same classes registrated as the writing side.
+	* @param stream The stream the records are read from.
+	*/
+	public ObjectStreamReader(Manager mg, InputStream stream) {
+		this(mg, stream, Integer.MAX_VALUE);
+	}
+
+	/**
+	*Create a reader that refuses records larger than maxRecordSize bytes, so that a corrupted length can't cause a huge allocation.
+	*/
+	public ObjectStreamReader(Manager mg, InputStream stream, int maxRecordSize) {
+		this(mg, stream, maxRecordSize, null);
+	}
+
+	/**
+	*Create a reader for records that were compressed by an ObjectStreamWriter. The limit applies to the decompressed size as well.
+	* @param compression The compression the writer used, or null if the records aren't compressed.
+	*/
+	public ObjectStreamReader(Manager mg, InputStream stream, int maxRecordSize, Compression compression) {
+		this.mg = mg;
+		this.stream = stream;
+		this.maxRecordSize = maxRecordSize;
+		this.compression = compression;
+	}
+
+	/**
+	*Check whether there is another record in the stream. Blocks until the header of the next record or the end of the stream is read.
+	*/
+	public boolean hasNext() {
+		if(pending != -1)return true;
+		if(ended)return false;
+		try {
+			int n = readFully(header, 0, 4);
+			if(n == 0) {
+				ended = true;
+				return false;
+			}
+			if(n < 4)throw new SerializationException("Stream ended in the middle of a record header");
+		}catch(IOException e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
+		}
+		int length = ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16) | ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+		if(length < 0 || length > maxRecordSize)throw new SerializationException(String.format("Invalid record length %d", length));
+		pending = length;
+		return true;
+	}
+
+	/**
+	*Read and deserialize the next record.
+	*/
+	public Object next() {
+		int length = take();
+		if(buf.length < length)buf = new byte[Math.max(length, buf.length * 2)];
+		try {
+			if(readFully(buf, 0, length) < length)throw new SerializationException("Stream ended in the middle of a record");
+		}catch(IOException e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
+		}
+		ByteBuffer record;
+		if(compression == null)record = ByteBuffer.wrap(buf, 0, length);
+		else {
+			int plainLength = compression.decompressedLength(buf, 0, length);
+			if(plainLength > maxRecordSize)throw new SerializationException(String.format("Invalid record length %d", plainLength));
+			if(plain == null || plain.length < plainLength)plain = new byte[Math.max(plainLength, 256)];
+			compression.decompress(buf, 0, length, plain);
+			record = ByteBuffer.wrap(plain, 0, plainLength);
+		}
+		Object o = mg.read(record);
+		if(record.hasRemaining())throw new SerializationException("Record contains more data than the object");
+		return o;
+	}
+
+	/**
+	*Append the bytes of the next record to a buffer without deserializing them.
+	* @return false if there are no more records.
+	*/
+	boolean readRecord(ByteOutput out) {
+		if(!hasNext())return false;
+		int length = take();
+		if(buf.length < length)buf = new byte[Math.max(length, buf.length * 2)];
+		try {
+			if(readFully(buf, 0, length) < length)throw new SerializationException("Stream ended in the middle of a record");
+		}catch(IOException e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
+		}
+		out.write(buf, 0, length);
+		return true;
+	}
+
+	/**
+	*Skip the next record without deserializing it.
+	*/
+	public void skip() {
+		int length = take();
+		try {
+			long left = length;
+			while(left > 0) {
+				long n = stream.skip(left);
+				if(n <= 0) {
+					if(stream.read() == -1)throw new SerializationException("Stream ended in the middle of a record");
+					n = 1;
+				}
+				left -= n;
+			}
+		}catch(IOException e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
+		}
+	}
+
+	private int take() {
+		if(!hasNext())throw new NoSuchElementException();
+		int length = pending;
+		pending = -1;
+		return length;
+	}
+
+	/**
+	*Read until len bytes are read or the stream ends, return the number of bytes read.
+	*/
+	private int readFully(byte[] b, int off, int len) throws IOException {
+		int total = 0;
+		while(total < len) {
+			int n = stream.read(b, off + total, len - total);
+			if(n == -1)break;
+			total += n;
+		}
+		return total;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() throws IOException {
+		stream.close();
+	}
+}
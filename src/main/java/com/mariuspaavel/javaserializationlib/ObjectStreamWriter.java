@@ -0,0 +1,77 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.io.*;
+
+/**
+*Writes a sequence of objects to a stream, one length-prefixed record per object.
+* Every record starts with its length as a 4 byte big endian int followed by the object serialized by the Manager. 
+* The records can be read back one at a time with ObjectStreamReader, which can also skip records without deserializing them.
+* Records can optionally be compressed one by one with a Compression. The writer reuses its buffers for all records, so writing 
+* doesn't allocate once the buffers have grown to the size of the largest record.
+*/
+public class ObjectStreamWriter implements Closeable, Flushable {
+
+	private final Manager mg;
+	private final OutputStream stream;
+	private final Compression compression;
+	private final ByteOutput record = new ByteOutput();
+	private final ByteOutput block;
+	private long count = 0;
+
+	/**
+	*Create a writer that appends records to a stream.
+	* @param mg The manager that serializes the objects.
+	* @param stream The stream where the records are written, for example a FileOutputStream or the output stream of a socket.
+	*/
+	public ObjectStreamWriter(Manager mg, OutputStream stream) {
+		this(mg, stream, null);
+	}
+
+	/**
+	*Create a writer that compresses every record. The reader must use a Compression with the same dictionary.
+	* @param compression The compression of the records, or null to write them uncompressed.
+	*/
+	public ObjectStreamWriter(Manager mg, OutputStream stream, Compression compression) {
+		this.mg = mg;
+		this.stream = stream;
+		this.compression = compression;
+		this.block = compression == null ? null : new ByteOutput();
+	}
+
+	/**
+	*Serialize an object and append it to the stream as one record.
+	*/
+	public void write(Object o) throws IOException {
+		record.reset();
+		if(compression == null) {
+			record.writeInt(0);
+			mg.write(o, record);
+			record.patchInt(0, record.size() - 4);
+			record.writeTo(stream);
+		}
+		else {
+			mg.write(o, record);
+			block.reset();
+			block.writeInt(0);
+			compression.compress(record.array(), 0, record.size(), block);
+			block.patchInt(0, block.size() - 4);
+			block.writeTo(stream);
+		}
+		count++;
+	}
+
+	/**
+	*Get the number of records written so far.
+	*/
+	public long getCount() {
+		return count;
+	}
+
+	public void flush() throws IOException {
+		stream.flush();
+	}
+
+	public void close() throws IOException {
+		stream.close();
+	}
+}
@@ -0,0 +1,263 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*A read-only view of a registrated object that is still in its serialized form.
+* The view reads single @S fields straight from the buffer when they are asked for, nothing else is deserialized. The offsets of the 
+* fields that come before the first variable sized field are precomputed for the class, the offsets of the rest are found by skipping 
+* over the preceding fields once and then remembered. In the tagged format the fields are found by jumping over their lengths.
+* Nested objects can be viewed the same way with getView.
+* Views can't be used when the manager has reference tracking or the string dictionary turned on, because then a value can depend on 
+* data earlier in the stream. A view is not thread-safe, but any number of views can share the same buffer.
+*/
+public class ObjectView {
+
+	private final Registry r;
+	private final ClassCodec codec;
+	private final ByteBuffer buf;
+	private final ByteInput.BufferInput input;
+	private final Decoder d;
+	private final int start;
+	private final int dbid;
+
+	//offsets[i] is the position of field i, offsets[fields.length] is the end of the object. Only the first known entries are valid.
+	private final int[] offsets;
+	private int known;
+
+	/**
+	*Create a view of the object that starts at the current position of a buffer.
+	* The position of the buffer is not changed.
+	* @param mg The manager that serialized the object.
+	* @param buf The buffer that contains the serialized object.
+	*/
+	public ObjectView(Manager mg, ByteBuffer buf) {
+		this(viewableRegistry(mg), buf.duplicate().order(ByteOrder.BIG_ENDIAN), true, null);
+	}
+
+	/**
+	* @param fieldClass The class of a monomorphic field, whose value starts with a null flag instead of a class id.
+	*/
+	private ObjectView(Registry r, ByteBuffer buf, boolean rejectNull, ClassCodec fieldClass) {
+		this.r = r;
+		this.buf = buf;
+		this.start = buf.position();
+		this.input = new ByteInput.BufferInput(buf);
+		this.d = new Decoder(r, input);
+		try {
+			if(fieldClass != null) {
+				byte flag = input.readByte();
+				if(flag != Registry.KNOWN_NULL && flag != Registry.KNOWN_VALUE)throw new SerializationException(String.format("Invalid value flag %d", flag));
+				codec = flag == Registry.KNOWN_NULL ? null : fieldClass;
+			}
+			else {
+				int serialid = r.readLength(input);
+				if(serialid == Registry.NULL_ID && rejectNull)throw new SerializationException("The buffer contains a null reference");
+				TypeCodec c = r.codecFor(serialid);
+				if(serialid != Registry.NULL_ID && !(c instanceof ClassCodec))throw new SerializationException(String.format("Class id %d isn't a registrated class", serialid));
+				codec = (ClassCodec)c;
+			}
+			if(codec == null) {
+				dbid = -1;
+				offsets = null;
+				return;
+			}
+			dbid = codec.dbObject ? r.readSignedInt(input) : -1;
+			offsets = new int[codec.fields.length + 1];
+			if(r.tagged) {
+				scanTagged();
+				return;
+			}
+			int base = input.position();
+			for(int i = 0; i < codec.fixedOffsets.length; i++) {
+				offsets[i] = base + codec.fixedOffsets[i];
+			}
+			known = codec.fixedOffsets.length;
+			if(known == 0) {
+				offsets[0] = base;
+				known = 1;
+			}
+		}catch(IOException e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
+		}
+	}
+
+	/**
+	*Find the fields of the tagged format by jumping over the values with their lengths. Fields that weren't written stay at -1.
+	*/
+	private void scanTagged() throws IOException {
+		Arrays.fill(offsets, -1);
+		int count = r.readLength(input);
+		for(int i = 0; i < count; i++) {
+			int index = codec.fieldIndex(r.readLength(input), input);
+			int length = input.readInt();
+			if(index != -1)offsets[index] = input.position();
+			input.skip(length);
+		}
+		offsets[codec.fields.length] = input.position();
+		known = offsets.length;
+	}
+
+	private static Registry viewableRegistry(Manager mg) {
+		Registry r = mg.registry();
+		if(r.referenceTracking || r.stringDictionary)throw new RuntimeException("Object views can't be used with reference tracking or the string dictionary");
+		return r;
+	}
+
+	/**
+	*Get the class of the viewed object.
+	*/
+	public Class getType() {
+		return codec.type;
+	}
+
+	/**
+	*Get the database id of the viewed object, or -1 if the class doesn't implement DBObject.
+	*/
+	public int getId() {
+		return dbid;
+	}
+
+	/**
+	*Get the number of bytes the serialized object takes, including its class id.
+	*/
+	public int getLength() {
+		return offset(codec.fields.length) - start;
+	}
+
+	public boolean getBoolean(String field) {
+		seek(field, boolean.class);
+		try {
+			return input.readBoolean();
+		}catch(IOException e) {
+			throw failure(e);
+		}
+	}
+
+	public byte getByte(String field) {
+		seek(field, byte.class);
+		try {
+			return input.readByte();
+		}catch(IOException e) {
+			throw failure(e);
+		}
+	}
+
+	public short getShort(String field) {
+		seek(field, short.class);
+		try {
+			return r.compact ? (short)input.readZigZagInt() : input.readShort();
+		}catch(IOException e) {
+			throw failure(e);
+		}
+	}
+
+	public int getInt(String field) {
+		seek(field, int.class);
+		try {
+			return r.compact ? input.readZigZagInt() : input.readInt();
+		}catch(IOException e) {
+			throw failure(e);
+		}
+	}
+
+	public long getLong(String field) {
+		seek(field, long.class);
+		try {
+			return r.compact ? input.readZigZagLong() : input.readLong();
+		}catch(IOException e) {
+			throw failure(e);
+		}
+	}
+
+	public float getFloat(String field) {
+		seek(field, float.class);
+		try {
+			return input.readFloat();
+		}catch(IOException e) {
+			throw failure(e);
+		}
+	}
+
+	public double getDouble(String field) {
+		seek(field, double.class);
+		try {
+			return input.readDouble();
+		}catch(IOException e) {
+			throw failure(e);
+		}
+	}
+
+	/**
+	*Deserialize the value of one field. Primitive values are returned wrapped.
+	*/
+	public Object get(String field) {
+		FieldCodec f = seek(field, null);
+		try {
+			return f.readValue(d);
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
+			throw failure(e);
+		}
+	}
+
+	/**
+	*Get a view of a registrated object that is the value of a field, without deserializing it.
+	* @return The view, or null if the field is null.
+	*/
+	public ObjectView getView(String field) {
+		FieldCodec f = seek(field, null);
+		ClassCodec fieldClass = null;
+		if(f instanceof FieldCodec.MonoField) {
+			TypeCodec c = ((FieldCodec.MonoField)f).codec;
+			if(!(c instanceof ClassCodec))throw new IllegalArgumentException(String.format("Field %s isn't of a registrated class", field));
+			fieldClass = (ClassCodec)c;
+		}
+		else if(!(f instanceof FieldCodec.ObjectField))throw new IllegalArgumentException(String.format("Field %s is a primitive", field));
+		ByteBuffer nested = buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+		nested.position(input.position());
+		ObjectView view = new ObjectView(r, nested, false, fieldClass);
+		return view.codec == null ? null : view;
+	}
+
+	/**
+	*Position the input at the value of a field.
+	*/
+	private FieldCodec seek(String field, Class type) {
+		int index = codec.fieldIndex(field);
+		if(index == -1)throw new IllegalArgumentException(String.format("Class %s has no @S field %s", codec.type.getName(), field));
+		FieldCodec f = codec.fields[index];
+		if(type != null && !f.field.getType().equals(type))throw new IllegalArgumentException(String.format("Field %s is of type %s", field, f.field.getType().getName()));
+		int offset = offset(index);
+		if(offset == -1)throw new SerializationException(String.format("Field %s is not present in the serialized object", field));
+		input.position(offset);
+		return f;
+	}
+
+	private int offset(int index) {
+		try {
+			while(known <= index) {
+				input.position(offsets[known - 1]);
+				codec.fields[known - 1].skip(d);
+				offsets[known] = input.position();
+				known++;
+			}
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
+			throw failure(e);
+		}
+		return offsets[index];
+	}
+
+	private static SerializationException failure(Throwable e) {
+		e.printStackTrace();
+		return new SerializationException(e.getMessage());
+	}
+}
@@ -0,0 +1,52 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.*;
+
+/**
+*A Future that is completed by a CompletionHandler, used by the Future variants of the asynchronous methods.
+* Pending operations can't be cancelled.
+*/
+class PendingResult<V> implements Future<V>, CompletionHandler<V, Object> {
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private V value;
+	private Throwable failure;
+
+	public void completed(V value, Object attachment) {
+		this.value = value;
+		done.countDown();
+	}
+
+	public void failed(Throwable failure, Object attachment) {
+		this.failure = failure;
+		done.countDown();
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	public boolean isCancelled() {
+		return false;
+	}
+
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	public V get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result();
+	}
+
+	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if(!done.await(timeout, unit))throw new TimeoutException();
+		return result();
+	}
+
+	private V result() throws ExecutionException {
+		if(failure != null)throw new ExecutionException(failure);
+		return value;
+	}
+}
@@ -0,0 +1,57 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.util.*;
+
+/**
+*A precompiled set of @S fields to deserialize from an object.
+* When an object is read with a projection, only the selected fields are deserialized, the other fields are skipped and keep the 
+* values the no-argument constructor gave them. Nested objects in selected fields are deserialized completely.
+* A projection is immutable and can be shared between threads.
+*/
+public final class Projection {
+
+	private final ClassCodec codec;
+	private final boolean[] mask;
+	private final Set<String> fields;
+
+	/**
+	*Compile a projection for a registrated class.
+	* @param mg The manager that the objects are read with.
+	* @param c The class of the objects that are read.
+	* @param fields The names of the @S fields that are deserialized.
+	*/
+	public Projection(Manager mg, Class c, String... fields) {
+		TypeCodec codec = mg.registry().codecFor(c);
+		if(!(codec instanceof ClassCodec))throw new IllegalArgumentException(String.format("Class %s is not registrated", c.getName()));
+		this.codec = (ClassCodec)codec;
+		this.fields = null;
+		this.mask = new boolean[this.codec.fields.length];
+		for(String field : fields) {
+			int index = this.codec.fieldIndex(field);
+			if(index == -1)throw new IllegalArgumentException(String.format("Class %s has no @S field %s", c.getName(), field));
+			mask[index] = true;
+		}
+	}
+
+	/**
+	*A projection for an object whose class is only known once it has been read, names that the class doesn't have are ignored.
+	*/
+	Projection(Set<String> fields) {
+		this.codec = null;
+		this.mask = null;
+		this.fields = fields;
+	}
+
+	/**
+	*Get the fields of a class that are deserialized, in the alphabetical field order.
+	*/
+	boolean[] mask(ClassCodec c) {
+		if(codec != null) {
+			if(c != codec)throw new SerializationException(String.format("Expected an object of class %s but found %s", codec.type.getName(), c.type.getName()));
+			return mask;
+		}
+		boolean[] m = new boolean[c.fields.length];
+		for(int i = 0; i < m.length; i++)m[i] = fields.contains(c.fields[i].name);
+		return m;
+	}
+}
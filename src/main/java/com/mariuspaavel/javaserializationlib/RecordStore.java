@@ -0,0 +1,228 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.io.*;
+
+/**
+*An append-only file of objects serialized by a Manager, read back by record number through memory-mapped segments.
+* The data file starts with a 16 byte header and contains the records in the same length-prefixed form that ObjectStreamWriter uses.
+* A record never crosses the boundary of a segment. The offset of every record is kept in an index file next to the data file, 
+* which has the same name with ".idx" appended, so opening a store doesn't read the records and a record is found with one lookup.
+* Reads go through the page cache without copying the file into the heap. Any number of threads can read at the same time,
+* appends are serialized. Closing waits for the reads that are in progress. The Manager must have the same classes registrated as the one that wrote the store.
+*/
+public class RecordStore implements Closeable {
+
+	private static final int MAGIC = 0x4a534c52;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	/**
+	*The default size of a mapped segment, which is also the largest possible record.
+	*/
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+	private final Manager mg;
+	private final boolean readOnly;
+	private final int segmentSize;
+	private final MappedFile data;
+	private final MappedFile index;
+	private final ByteOutput record = new ByteOutput();
+
+	private volatile long count;
+	private long end;
+	private volatile boolean closed = false;
+	//Reads hold the read lock while they use the mapped segments, close takes the write lock before it releases them
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	*Open a store for appending, the files are created if they don't exist.
+	*/
+	public RecordStore(Manager mg, Path path) throws IOException {
+		this(mg, path, false, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	*Open a store for reading only or for appending.
+	*/
+	public RecordStore(Manager mg, Path path, boolean readOnly) throws IOException {
+		this(mg, path, readOnly, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	*Open a store.
+	* @param mg The manager that serializes the records.
+	* @param path The data file.
+	* @param readOnly Whether the store is opened for reading only.
+	* @param segmentSize The size of a mapped segment for a new store, a multiple of 4096. An existing store keeps its own segment size.
+	*/
+	public RecordStore(Manager mg, Path path, boolean readOnly, int segmentSize) throws IOException {
+		this.mg = mg;
+		this.readOnly = readOnly;
+		Path indexPath = path.resolveSibling(path.getFileName() + ".idx");
+		boolean exists = Files.exists(path) && Files.size(path) > 0;
+		if(!exists && readOnly)throw new FileNotFoundException(path.toString());
+		if(exists) {
+			try(MappedFile header = new MappedFile(path, true, HEADER_SIZE)) {
+				ByteBuffer buf = header.read(0, HEADER_SIZE);
+				if(buf.getInt() != MAGIC)throw new IOException(String.format("%s is not a record store", path));
+				int version = buf.getInt();
+				if(version != VERSION)throw new IOException(String.format("Unsupported record store version %d", version));
+				segmentSize = buf.getInt();
+			}
+		}
+		if(segmentSize < 4096 || segmentSize % 4096 != 0)throw new IllegalArgumentException(String.format("Invalid segment size %d", segmentSize));
+		this.segmentSize = segmentSize;
+		this.data = new MappedFile(path, readOnly, segmentSize);
+		if(readOnly && !Files.exists(indexPath))throw new FileNotFoundException(indexPath.toString());
+		this.index = new MappedFile(indexPath, readOnly, segmentSize);
+
+		if(!exists) {
+			ByteBuffer header = data.segment(0);
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(8, segmentSize);
+		}
+		//A store that wasn't closed properly has zeroes at the end of its index, records never start at offset 0
+		long low = 0;
+		long high = index.size() / 8;
+		while(low < high) {
+			long middle = (low + high) >>> 1;
+			if(index.read(middle * 8, 8).getLong() == 0)high = middle;
+			else low = middle + 1;
+		}
+		long n = low;
+		count = n;
+		if(n == 0)end = HEADER_SIZE;
+		else {
+			long offset = index.read((n - 1) * 8, 8).getLong();
+			end = offset + 4 + data.read(offset, 4).getInt();
+		}
+		if(mg.d)mg.ds.println(String.format("Opened record store %s with %d records", path, count));
+	}
+
+	/**
+	*Serialize an object and append it to the store.
+	* @return The record number of the object.
+	*/
+	public synchronized long append(Object o) throws IOException {
+		if(readOnly)throw new RuntimeException("The record store is opened for reading only");
+		if(closed)throw new IOException("The record store is closed");
+		record.reset();
+		record.writeInt(0);
+		mg.write(o, record);
+		int length = record.size();
+		record.patchInt(0, length - 4);
+		if(length > segmentSize)throw new SerializationException(String.format("A record of %d bytes doesn't fit in a segment", length));
+		if(end % segmentSize + length > segmentSize)end = (end / segmentSize + 1) * segmentSize;
+
+		ByteBuffer segment = data.segment((int)(end / segmentSize)).duplicate();
+		segment.position((int)(end % segmentSize));
+		segment.put(record.array(), 0, length);
+		long n = count;
+		index.segment((int)(n * 8 / segmentSize)).putLong((int)(n * 8 % segmentSize), end);
+		end += length;
+		count = n + 1;
+		return n;
+	}
+
+	/**
+	*Deserialize a record.
+	*/
+	public Object get(long n) {
+		lock.readLock().lock();
+		try {
+			ByteBuffer buf = record(n);
+			Object o = mg.read(buf);
+			if(buf.hasRemaining())throw new SerializationException("Record contains more data than the object");
+			return o;
+		}finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	*Get a view of a record without deserializing it. The view must not be used after the store is closed.
+	*/
+	public ObjectView view(long n) {
+		lock.readLock().lock();
+		try {
+			return new ObjectView(mg, record(n));
+		}finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	*Get the number of records in the store.
+	*/
+	public long size() {
+		return count;
+	}
+
+	/**
+	*Get the bytes of a record as a buffer that is limited to the record.
+	*/
+	private ByteBuffer record(long n) {
+		if(closed)throw new SerializationException("The record store is closed");
+		if(n < 0 || n >= count)throw new IndexOutOfBoundsException(String.format("Record %d of %d", n, count));
+		try {
+			long offset = index.segment((int)(n * 8 / segmentSize)).getLong((int)(n * 8 % segmentSize));
+			ByteBuffer segment = data.segment((int)(offset / segmentSize)).duplicate();
+			int position = (int)(offset % segmentSize);
+			int length = segment.getInt(position);
+			segment.limit(position + 4 + length);
+			segment.position(position + 4);
+			return segment;
+		}catch(IOException e) {
+			e.printStackTrace();
+			throw new SerializationException(e.getMessage());
+		}
+	}
+
+	/**
+	*Write the appended records to the disk.
+	*/
+	public synchronized void flush() {
+		if(readOnly || closed)return;
+		data.force();
+		index.force();
+	}
+
+	/**
+	*Close the store. A writable store is flushed and its files are cut to their real size.
+	* Some platforms don't allow cutting a file while it is still mapped. The store stays valid if that fails, because
+	* opening it finds the real size from the index again.
+	*/
+	public synchronized void close() throws IOException {
+		if(closed)return;
+		lock.writeLock().lock();
+		try {
+			closed = true;
+			if(!readOnly) {
+				data.force();
+				index.force();
+			}
+			data.release();
+			index.release();
+			if(!readOnly) {
+				try {
+					data.truncate(end);
+					index.truncate(count * 8);
+				}catch(IOException e) {
+					if(mg.d)mg.ds.println(String.format("Couldn't cut the record store to its real size: %s", e.getMessage()));
+				}
+			}
+		}finally {
+			lock.writeLock().unlock();
+			try {
+				data.close();
+			}finally {
+				index.close();
+			}
+		}
+	}
+}
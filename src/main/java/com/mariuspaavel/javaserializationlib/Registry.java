@@ -0,0 +1,305 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.lang.reflect.Field;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*The frozen class tables of a Manager and the code that serializes objects with them.
+* A Registry is created when the Manager locks its initialization and never changes afterwards. All of its state is final, 
+* the per-object state of a serialization lives on the stack, so one Registry can be used by any number of threads at the same time.
+*/
+final class Registry {
+
+	/**
+	*The class id slot value of a null reference.
+	*/
+	static final int NULL_ID = 0;
+
+	/**
+	*The class id slot value of a back reference to an object that was already written in the same stream.
+	* Ids below FIRST_CLASS_ID are reserved for the built-in types and the format itself.
+	*/
+	static final int REFERENCE_ID = 31;
+
+	/**
+	*The first class id of the registrated classes. A class registrated with an explicit id n gets the class id FIRST_CLASS_ID + n - 1,
+	* the other classes fill the free ids in the alphabetical order of their names.
+	*/
+	static final int FIRST_CLASS_ID = 32;
+
+	/**
+	*The flags that a monomorphic field writes instead of a class id.
+	*/
+	static final byte KNOWN_NULL = 0;
+	static final byte KNOWN_VALUE = 1;
+	static final byte KNOWN_REFERENCE = 2;
+
+	/**
+	*The version of the binary format, part of the schema fingerprint.
+	*/
+	static final int FORMAT_VERSION = 2;
+
+	final Manager m;
+	final boolean compact;
+	final boolean referenceTracking;
+	final boolean stringDictionary;
+	final boolean tagged;
+	final boolean monomorphic;
+	final long fingerprint;
+	final Map<String, Class> classesByName;
+	final Map<Class, TreeMap<String, Field>> classInfo;
+
+	/**
+	*The largest class id that is looked up in the array, the codecs of larger explicit ids are kept in a map.
+	*/
+	static final int DENSE_IDS = 1 << 16;
+
+	/**
+	*The codecs indexed by class id, used when deserializing. Unused ids are null.
+	*/
+	private final TypeCodec[] byId;
+
+	/**
+	*The codecs with ids above DENSE_IDS, or null if there are none.
+	*/
+	private final HashMap<Integer, TypeCodec> sparseIds;
+
+	/**
+	*The codecs looked up by class, used when serializing. Classes that aren't registrated map to null.
+	*/
+	private final ClassValue<TypeCodec> byClass;
+
+	Registry(Manager m, boolean compact, boolean referenceTracking, boolean stringDictionary, boolean tagged, boolean monomorphic, TreeMap<String, Class> classesOrdered, Map<Class, TreeMap<String, Field>> classInfo, Map<Class, Integer> classIds, Map<Class, GeneratedCodec> generated) {
+		this.m = m;
+		this.compact = compact;
+		this.referenceTracking = referenceTracking;
+		this.stringDictionary = stringDictionary;
+		this.tagged = tagged;
+		//The tagged format keeps the class ids, so that a field can change its type
+		this.monomorphic = monomorphic && !tagged;
+
+		ArrayList<TypeCodec> codecs = new ArrayList<TypeCodec>();
+		codecs.add(new TypeCodec.BooleanCodec(1, this));
+		codecs.add(new TypeCodec.ByteCodec(2, this));
+		codecs.add(new TypeCodec.ShortCodec(3, this));
+		codecs.add(new TypeCodec.IntegerCodec(4, this));
+		codecs.add(new TypeCodec.LongCodec(5, this));
+		codecs.add(new TypeCodec.FloatCodec(6, this));
+		codecs.add(new TypeCodec.DoubleCodec(7, this));
+		codecs.add(new TypeCodec.StringCodec(8, this));
+		codecs.add(new TypeCodec.ListCodec(9, this));
+		codecs.add(new TypeCodec.ByteArrayCodec(10, this));
+		codecs.add(new TypeCodec.BooleanArrayCodec(11, this));
+		codecs.add(new TypeCodec.ShortArrayCodec(12, this));
+		codecs.add(new TypeCodec.IntArrayCodec(13, this));
+		codecs.add(new TypeCodec.LongArrayCodec(14, this));
+		codecs.add(new TypeCodec.FloatArrayCodec(15, this));
+		codecs.add(new TypeCodec.DoubleArrayCodec(16, this));
+
+		HashMap<Class, TreeMap<String, Field>> fields = new HashMap<Class, TreeMap<String, Field>>();
+		HashSet<Integer> explicitIds = new HashSet<Integer>();
+		for(Integer explicitId : classIds.values())explicitIds.add(FIRST_CLASS_ID + explicitId - 1);
+		int maxId = FIRST_CLASS_ID - 1;
+		int nextId = FIRST_CLASS_ID;
+		for(String name : classesOrdered.keySet()) {
+			Class c = classesOrdered.get(name);
+			int id;
+			if(classIds.containsKey(c))id = FIRST_CLASS_ID + classIds.get(c) - 1;
+			else {
+				while(explicitIds.contains(nextId))nextId++;
+				id = nextId++;
+			}
+			maxId = Math.max(maxId, id);
+			fields.put(c, new TreeMap<String, Field>(classInfo.get(c)));
+			codecs.add(new ClassCodec(id, c, classInfo.get(c), generated.get(c), this));
+		}
+
+		byId = new TypeCodec[Math.min(maxId, DENSE_IDS) + 1];
+		sparseIds = maxId > DENSE_IDS ? new HashMap<Integer, TypeCodec>() : null;
+		final HashMap<Class, TypeCodec> classCodecs = new HashMap<Class, TypeCodec>();
+		for(TypeCodec codec : codecs) {
+			if(codec.id <= DENSE_IDS)byId[codec.id] = codec;
+			else sparseIds.put(codec.id, codec);
+			classCodecs.put(codec.type, codec);
+		}
+		byClass = new ClassValue<TypeCodec>() {
+			protected TypeCodec computeValue(Class<?> c) {
+				return classCodecs.get(c);
+			}
+		};
+
+		for(TypeCodec codec : codecs) {
+			if(codec instanceof ClassCodec)((ClassCodec)codec).link();
+		}
+
+		this.classesByName = Collections.unmodifiableMap(new TreeMap<String, Class>(classesOrdered));
+		this.classInfo = Collections.unmodifiableMap(fields);
+		this.fingerprint = fingerprint();
+	}
+
+	/**
+	*Compute a 64 bit FNV-1a hash of the format version, the options and the class ids, names and fields that the format depends on.
+	*/
+	private long fingerprint() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(FORMAT_VERSION).append(compact ? 'c' : '-').append(referenceTracking ? 'r' : '-');
+		sb.append(stringDictionary ? 's' : '-').append(tagged ? 't' : '-').append(monomorphic ? 'm' : '-');
+		ArrayList<TypeCodec> ordered = new ArrayList<TypeCodec>(Arrays.asList(byId));
+		if(sparseIds != null)ordered.addAll(new TreeMap<Integer, TypeCodec>(sparseIds).values());
+		for(TypeCodec codec : ordered) {
+			if(!(codec instanceof ClassCodec))continue;
+			sb.append(';').append(codec.id).append(':').append(codec.type.getName());
+			for(FieldCodec f : ((ClassCodec)codec).fields) {
+				sb.append(',').append(f.tag).append(':').append(f.name).append(':').append(f.field.getType().getName());
+				if(f instanceof FieldCodec.MonoListField)sb.append('<').append(((FieldCodec.MonoListField)f).codec.type.getName()).append('>');
+			}
+		}
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < sb.length(); i++) {
+			hash ^= sb.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	*Get the codec of a class or null if the class isn't registrated.
+	*/
+	TypeCodec codecFor(Class c) {
+		return byClass.get(c);
+	}
+
+	/**
+	*Get the codec of a class id or null if no class has that id.
+	*/
+	TypeCodec codecFor(int id) {
+		if(id > 0 && id < byId.length)return byId[id];
+		return sparseIds == null ? null : sparseIds.get(id);
+	}
+
+	void writeLength(int length, ByteOutput out) {
+		if(compact)out.writeVarInt(length);
+		else out.writeInt(length);
+	}
+
+	int readLength(ByteInput in) throws IOException {
+		return compact ? in.readVarInt() : in.readInt();
+	}
+
+	void writeSignedInt(int v, ByteOutput out) {
+		if(compact)out.writeZigZagInt(v);
+		else out.writeInt(v);
+	}
+
+	int readSignedInt(ByteInput in) throws IOException {
+		return compact ? in.readZigZagInt() : in.readInt();
+	}
+
+	void writeObject(Object o, Encoder e) throws Throwable {
+		if(o == null){
+			writeLength(NULL_ID, e.out);
+			return;
+		}
+		TypeCodec codec = byClass.get(o.getClass());
+		if(codec == null)throw new RuntimeException(String.format("Class %s hasn't been registrated.", o.getClass().getName()));
+		if(codec.tracked()) {
+			int ref = e.reference(o);
+			if(ref != -1) {
+				if(m.d)m.ds.println(String.format("Writing back reference %d", ref));
+				writeLength(REFERENCE_ID, e.out);
+				writeLength(ref, e.out);
+				return;
+			}
+		}
+		if(m.d)m.ds.println(String.format("Serializing class %s", codec.type.getName()));
+		writeLength(codec.id, e.out);
+		codec.write(o, e);
+	}
+	
+	Object readObject(Decoder d) throws Throwable {
+		return readObjectInto(d, null);
+	}
+
+	/**
+	*Read an object, reusing the old object where the codec can overwrite it.
+	*/
+	Object readObjectInto(Decoder d, Object old) throws Throwable {
+		int serialid = readLength(d.in);
+		if(serialid == NULL_ID)return null;
+		if(serialid == REFERENCE_ID)return d.reference(readLength(d.in));
+		TypeCodec codec = codecFor(serialid);
+		if(codec == null)throw new RuntimeException(String.format("No class registrated with an id of %d", serialid));
+		if(m.d)m.ds.println(String.format("Deserializing class %s", codec.type.getName()));		
+		return old == null ? codec.read(d) : codec.readInto(d, old);
+	}
+
+	/**
+	*Write a value of a field whose class is known from its declaration, with a one byte flag instead of the class id.
+	*/
+	void writeKnown(Object o, TypeCodec codec, Encoder e) throws Throwable {
+		if(o == null) {
+			e.out.writeByte(KNOWN_NULL);
+			return;
+		}
+		if(o.getClass() != codec.type)throw new RuntimeException(String.format("Expected a value of class %s but found %s", codec.type.getName(), o.getClass().getName()));
+		if(codec.tracked()) {
+			int ref = e.reference(o);
+			if(ref != -1) {
+				e.out.writeByte(KNOWN_REFERENCE);
+				writeLength(ref, e.out);
+				return;
+			}
+		}
+		e.out.writeByte(KNOWN_VALUE);
+		codec.write(o, e);
+	}
+
+	/**
+	*Read a value that was written by writeKnown, reusing the old value where the codec can overwrite it.
+	*/
+	Object readKnown(TypeCodec codec, Decoder d, Object old) throws Throwable {
+		byte flag = d.in.readByte();
+		if(flag == KNOWN_NULL)return null;
+		if(flag == KNOWN_REFERENCE)return d.reference(readLength(d.in));
+		if(flag != KNOWN_VALUE)throw new SerializationException(String.format("Invalid value flag %d", flag));
+		return old == null ? codec.read(d) : codec.readInto(d, old);
+	}
+
+	void skipKnown(TypeCodec codec, Decoder d) throws Throwable {
+		byte flag = d.in.readByte();
+		if(flag == KNOWN_REFERENCE)readLength(d.in);
+		else if(flag == KNOWN_VALUE)codec.skip(d);
+		else if(flag != KNOWN_NULL)throw new SerializationException(String.format("Invalid value flag %d", flag));
+	}
+
+	/**
+	*Read a registrated object but deserialize only the fields selected by a projection.
+	*/
+	Object readObject(Decoder d, Projection p) throws Throwable {
+		int serialid = readLength(d.in);
+		if(serialid == NULL_ID)return null;
+		TypeCodec codec = codecFor(serialid);
+		if(codec == null)throw new RuntimeException(String.format("No class registrated with an id of %d", serialid));
+		if(!(codec instanceof ClassCodec))throw new SerializationException(String.format("Projections can only be applied to registrated classes, found %s", codec.type.getName()));
+		if(m.d)m.ds.println(String.format("Deserializing class %s with a projection", codec.type.getName()));
+		ClassCodec c = (ClassCodec)codec;
+		return c.read(d, p.mask(c));
+	}
+
+	/**
+	*Move past a serialized object without deserializing it.
+	*/
+	void skipObject(Decoder d) throws Throwable {
+		int serialid = readLength(d.in);
+		if(serialid == NULL_ID)return;
+		if(serialid == REFERENCE_ID) {
+			readLength(d.in);
+			return;
+		}
+		TypeCodec codec = codecFor(serialid);
+		if(codec == null)throw new RuntimeException(String.format("No class registrated with an id of %d", serialid));
+		codec.skip(d);
+	}
+}
@@ -10,4 +10,15 @@ import java.lang.annotation.Target;
 @Target(FIELD)
 public @interface S {
 
+	/**
+	*A stable id of the field, used by the tagged format instead of the field name. 0 means that the field has no id.
+	* Ids must be positive and unique within a class. A field that has an id can be renamed without breaking stored data.
+	*/
+	int id() default 0;
+
+	/**
+	*The class of the elements of a List field. When monomorphic fields are turned on and the class is final, the elements are 
+	* written without their class ids. Object means that the elements can be of any class.
+	*/
+	Class<?> elementType() default Object.class;
 }
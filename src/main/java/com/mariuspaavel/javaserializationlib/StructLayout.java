@@ -0,0 +1,211 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import java.util.*;
+
+/**
+*A fixed-width record layout for registrated classes that have only primitive @S fields.
+* A record is the fields packed in alphabetical order with their full width, there is no class id, no length and no varint
+* encoding, so every record of the class takes getSize() bytes and every field is at the same offset in every record.
+* Records are stored back to back starting at the position of a buffer: record i starts at buf.position() + i * getSize(),
+* which makes arrays of records seekable by index and cheap to scan, from heap and direct buffers alike.
+* Values are stored in the byte order of the buffer. The layout doesn't depend on the compact or tagged settings of the manager.
+* Get the layout of a class with Manager.structLayout. A layout is immutable and can be shared between threads.
+*/
+public class StructLayout<T> {
+
+	private static final int BOOLEAN = 0, BYTE = 1, SHORT = 2, INT = 3, LONG = 4, FLOAT = 5, DOUBLE = 6;
+
+	private final ClassCodec codec;
+	private final FieldCodec[] fields;
+	private final int[] kinds;
+	private final int[] offsets;
+	private final int size;
+
+	StructLayout(ClassCodec codec) {
+		this.codec = codec;
+		this.fields = codec.fields;
+		if(codec.dbObject)throw new RuntimeException(String.format("Class %s is a DBObject and can't have a struct layout", codec.type.getName()));
+		if(fields.length == 0)throw new RuntimeException(String.format("Class %s has no @S fields", codec.type.getName()));
+		kinds = new int[fields.length];
+		offsets = new int[fields.length];
+		int offset = 0;
+		for(int i = 0; i < fields.length; i++) {
+			Class c = fields[i].field.getType();
+			int width;
+			if(c == boolean.class) {
+				kinds[i] = BOOLEAN;
+				width = 1;
+			}
+			else if(c == byte.class) {
+				kinds[i] = BYTE;
+				width = 1;
+			}
+			else if(c == short.class) {
+				kinds[i] = SHORT;
+				width = 2;
+			}
+			else if(c == int.class) {
+				kinds[i] = INT;
+				width = 4;
+			}
+			else if(c == long.class) {
+				kinds[i] = LONG;
+				width = 8;
+			}
+			else if(c == float.class) {
+				kinds[i] = FLOAT;
+				width = 4;
+			}
+			else if(c == double.class) {
+				kinds[i] = DOUBLE;
+				width = 8;
+			}
+			else throw new RuntimeException(String.format("Field %s of class %s isn't a primitive, the class can't have a struct layout", fields[i].name, codec.type.getName()));
+			offsets[i] = offset;
+			offset += width;
+		}
+		size = offset;
+	}
+
+	public Class<T> getType() {
+		return codec.type;
+	}
+
+	/**
+	*Get the number of bytes every record takes.
+	*/
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	*Get the offset of a field from the start of a record.
+	*/
+	public int getOffset(String field) {
+		int index = codec.fieldIndex(field);
+		if(index == -1)throw new IllegalArgumentException(String.format("Class %s has no @S field %s", codec.type.getName(), field));
+		return offsets[index];
+	}
+
+	/**
+	*Get the number of whole records between the position and the limit of a buffer.
+	*/
+	public int count(ByteBuffer buf) {
+		return buf.remaining() / size;
+	}
+
+	/**
+	*Write an object as record number index. The position of the buffer is not changed.
+	*/
+	public void write(T o, ByteBuffer buf, int index) {
+		int base = base(buf, index);
+		try {
+			for(int i = 0; i < fields.length; i++) {
+				put(i, o, buf, base + offsets[i]);
+			}
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
+			throw failure(e);
+		}
+	}
+
+	/**
+	*Read record number index into a new object. The position of the buffer is not changed.
+	*/
+	public T read(ByteBuffer buf, int index) {
+		try {
+			T o = (T)codec.newInstance();
+			readInto(buf, index, o);
+			return o;
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
+			throw failure(e);
+		}
+	}
+
+	/**
+	*Read record number index into an existing object. The position of the buffer is not changed.
+	*/
+	public T readInto(ByteBuffer buf, int index, T target) {
+		if(target.getClass() != codec.type)throw new IllegalArgumentException(String.format("Expected an instance of %s but found %s", codec.type.getName(), target.getClass().getName()));
+		int base = base(buf, index);
+		try {
+			for(int i = 0; i < fields.length; i++) {
+				get(i, target, buf, base + offsets[i]);
+			}
+		}catch(RuntimeException e) {
+			throw e;
+		}catch(Throwable e) {
+			throw failure(e);
+		}
+		return target;
+	}
+
+	/**
+	*Write a list of objects as one contiguous block of records at the position of the buffer and advance the position past them.
+	*/
+	public void writeAll(List<? extends T> objects, ByteBuffer buf) {
+		if(buf.remaining() / size < objects.size())throw new BufferOverflowException();
+		for(int i = 0; i < objects.size(); i++) {
+			write(objects.get(i), buf, i);
+		}
+		buf.position(buf.position() + objects.size() * size);
+	}
+
+	/**
+	*Read every whole record between the position and the limit of the buffer and advance the position past them.
+	*/
+	public List<T> readAll(ByteBuffer buf) {
+		int count = count(buf);
+		ArrayList<T> objects = new ArrayList<T>(count);
+		for(int i = 0; i < count; i++) {
+			objects.add(read(buf, i));
+		}
+		buf.position(buf.position() + count * size);
+		return objects;
+	}
+
+	/**
+	*Get the absolute position of a record and check that the whole record is inside the buffer.
+	*/
+	private int base(ByteBuffer buf, int index) {
+		if(index < 0 || index >= count(buf))throw new IndexOutOfBoundsException(String.format("Record %d is outside the buffer, which holds %d records", index, count(buf)));
+		return buf.position() + index * size;
+	}
+
+	private void put(int i, Object o, ByteBuffer buf, int pos) throws Throwable {
+		FieldCodec f = fields[i];
+		switch(kinds[i]) {
+			case BOOLEAN: buf.put(pos, (boolean)f.getter.invokeExact(o) ? (byte)1 : (byte)0); break;
+			case BYTE: buf.put(pos, (byte)f.getter.invokeExact(o)); break;
+			case SHORT: buf.putShort(pos, (short)f.getter.invokeExact(o)); break;
+			case INT: buf.putInt(pos, (int)f.getter.invokeExact(o)); break;
+			case LONG: buf.putLong(pos, (long)f.getter.invokeExact(o)); break;
+			case FLOAT: buf.putFloat(pos, (float)f.getter.invokeExact(o)); break;
+			default: buf.putDouble(pos, (double)f.getter.invokeExact(o)); break;
+		}
+	}
+
+	private void get(int i, Object o, ByteBuffer buf, int pos) throws Throwable {
+		FieldCodec f = fields[i];
+		switch(kinds[i]) {
+			case BOOLEAN: f.setter.invokeExact(o, buf.get(pos) != 0); break;
+			case BYTE: f.setter.invokeExact(o, buf.get(pos)); break;
+			case SHORT: f.setter.invokeExact(o, buf.getShort(pos)); break;
+			case INT: f.setter.invokeExact(o, buf.getInt(pos)); break;
+			case LONG: f.setter.invokeExact(o, buf.getLong(pos)); break;
+			case FLOAT: f.setter.invokeExact(o, buf.getFloat(pos)); break;
+			default: f.setter.invokeExact(o, buf.getDouble(pos)); break;
+		}
+	}
+
+	private static SerializationException failure(Throwable e) {
+		e.printStackTrace();
+		return new SerializationException(e.getMessage());
+	}
+}
@@ -0,0 +1,409 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*Serializes the values of one class that has a class id.
+* The class id itself is written and read by the Registry, a TypeCodec only handles what comes after it.
+* Registrated classes are handled by ClassCodec, the built-in types by the subclasses below.
+*/
+abstract class TypeCodec {
+
+	final int id;
+	final Class type;
+	final Registry r;
+
+	TypeCodec(int id, Class type, Registry r) {
+		this.id = id;
+		this.type = type;
+		this.r = r;
+	}
+
+	abstract void write(Object o, Encoder e) throws Throwable;
+	abstract Object read(Decoder d) throws Throwable;
+
+	/**
+	*Read a value, reusing the old value of the field if the codec can overwrite it. Immutable values are always read anew.
+	*/
+	Object readInto(Decoder d, Object old) throws Throwable {
+		return read(d);
+	}
+
+	/**
+	*Move past a value without keeping it.
+	* The default implementation deserializes the value, the codecs that can skip without allocating override it.
+	*/
+	void skip(Decoder d) throws Throwable {
+		read(d);
+	}
+
+	/**
+	*Whether instances are mutable containers that take part in reference tracking.
+	*/
+	boolean tracked() {
+		return false;
+	}
+
+	static class BooleanCodec extends TypeCodec {
+		BooleanCodec(int id, Registry r) {
+			super(id, Boolean.class, r);
+		}
+		void write(Object o, Encoder e) {
+			e.out.writeBoolean((Boolean)o);
+		}
+		Object read(Decoder d) throws IOException {
+			return d.in.readBoolean();
+		}
+		void skip(Decoder d) throws IOException {
+			d.in.skip(1);
+		}
+	}
+
+	static class ByteCodec extends TypeCodec {
+		ByteCodec(int id, Registry r) {
+			super(id, Byte.class, r);
+		}
+		void write(Object o, Encoder e) {
+			e.out.writeByte((Byte)o);
+		}
+		Object read(Decoder d) throws IOException {
+			return d.in.readByte();
+		}
+		void skip(Decoder d) throws IOException {
+			d.in.skip(1);
+		}
+	}
+
+	static class ShortCodec extends TypeCodec {
+		ShortCodec(int id, Registry r) {
+			super(id, Short.class, r);
+		}
+		void write(Object o, Encoder e) {
+			if(r.compact)e.out.writeZigZagInt((Short)o);
+			else e.out.writeShort((Short)o);
+		}
+		Object read(Decoder d) throws IOException {
+			return r.compact ? (short)d.in.readZigZagInt() : d.in.readShort();
+		}
+		void skip(Decoder d) throws IOException {
+			if(r.compact)d.in.readVarInt();
+			else d.in.skip(2);
+		}
+	}
+
+	static class IntegerCodec extends TypeCodec {
+		IntegerCodec(int id, Registry r) {
+			super(id, Integer.class, r);
+		}
+		void write(Object o, Encoder e) {
+			r.writeSignedInt((Integer)o, e.out);
+		}
+		Object read(Decoder d) throws IOException {
+			return r.readSignedInt(d.in);
+		}
+		void skip(Decoder d) throws IOException {
+			if(r.compact)d.in.readVarInt();
+			else d.in.skip(4);
+		}
+	}
+
+	static class LongCodec extends TypeCodec {
+		LongCodec(int id, Registry r) {
+			super(id, Long.class, r);
+		}
+		void write(Object o, Encoder e) {
+			if(r.compact)e.out.writeZigZagLong((Long)o);
+			else e.out.writeLong((Long)o);
+		}
+		Object read(Decoder d) throws IOException {
+			return r.compact ? d.in.readZigZagLong() : d.in.readLong();
+		}
+		void skip(Decoder d) throws IOException {
+			if(r.compact)d.in.readVarLong();
+			else d.in.skip(8);
+		}
+	}
+
+	static class FloatCodec extends TypeCodec {
+		FloatCodec(int id, Registry r) {
+			super(id, Float.class, r);
+		}
+		void write(Object o, Encoder e) {
+			e.out.writeFloat((Float)o);
+		}
+		Object read(Decoder d) throws IOException {
+			return d.in.readFloat();
+		}
+		void skip(Decoder d) throws IOException {
+			d.in.skip(4);
+		}
+	}
+
+	static class DoubleCodec extends TypeCodec {
+		DoubleCodec(int id, Registry r) {
+			super(id, Double.class, r);
+		}
+		void write(Object o, Encoder e) {
+			e.out.writeDouble((Double)o);
+		}
+		Object read(Decoder d) throws IOException {
+			return d.in.readDouble();
+		}
+		void skip(Decoder d) throws IOException {
+			d.in.skip(8);
+		}
+	}
+
+	static class StringCodec extends TypeCodec {
+		StringCodec(int id, Registry r) {
+			super(id, String.class, r);
+		}
+		void write(Object o, Encoder e) {
+			String s = (String)o;
+			if(r.stringDictionary) {
+				//0 introduces a new string, n refers to the string with the dictionary index n-1
+				int index = e.stringIndex(s);
+				r.writeLength(index + 1, e.out);
+				if(index != -1)return;
+			}
+			int length = Utf8.length(s);
+			r.writeLength(length, e.out);
+			e.out.writeUtf8(s, length);
+		}
+		Object read(Decoder d) throws IOException {
+			if(r.stringDictionary) {
+				int index = r.readLength(d.in);
+				if(index != 0)return d.string(index - 1);
+			}
+			int length = r.readLength(d.in);
+			//Dictionary entries must be kept, so strings are only handed over without the dictionary
+			if(!r.stringDictionary && d.deliver(String.class, length))return null;
+			String s = d.in.readUtf8(length);
+			if(r.stringDictionary)d.addString(s);
+			return s;
+		}
+		void skip(Decoder d) throws IOException {
+			//Dictionary entries must be kept, otherwise later indexes don't resolve
+			if(r.stringDictionary)read(d);
+			else d.in.skip(r.readLength(d.in));
+		}
+	}
+
+	static class ListCodec extends TypeCodec {
+		ListCodec(int id, Registry r) {
+			super(id, ArrayList.class, r);
+		}
+		boolean tracked() {
+			return true;
+		}
+		void write(Object o, Encoder e) throws Throwable {
+			List l = (List)o;
+			r.writeLength(l.size(), e.out);
+			for(int i = 0; i < l.size(); i++) {
+				r.writeObject(l.get(i), e);
+			}
+		}
+		Object read(Decoder d) throws Throwable {
+			int length = r.readLength(d.in);
+			List l = new ArrayList(length);
+			d.track(l);
+			for(int i = 0; i < length; i++) {
+				l.add(r.readObject(d));
+			}
+			return l;
+		}
+		/**
+		*Refill the old list, the elements it already has are reused where their types match.
+		*/
+		Object readInto(Decoder d, Object old) throws Throwable {
+			if(!(old instanceof ArrayList))return read(d);
+			int length = r.readLength(d.in);
+			ArrayList l = (ArrayList)old;
+			d.track(l);
+			for(int i = 0; i < length; i++) {
+				if(i < l.size())l.set(i, r.readObjectInto(d, l.get(i)));
+				else l.add(r.readObjectInto(d, null));
+			}
+			while(l.size() > length)l.remove(l.size() - 1);
+			return l;
+		}
+		void skip(Decoder d) throws Throwable {
+			//With reference tracking the list may be referred to later, so it has to be read
+			if(r.referenceTracking) {
+				read(d);
+				return;
+			}
+			int length = r.readLength(d.in);
+			for(int i = 0; i < length; i++) {
+				r.skipObject(d);
+			}
+		}
+	}
+
+	static class ByteArrayCodec extends TypeCodec {
+		ByteArrayCodec(int id, Registry r) {
+			super(id, byte[].class, r);
+		}
+		void write(Object o, Encoder e) {
+			byte[] v = (byte[])o;
+			r.writeLength(v.length, e.out);
+			e.out.write(v, 0, v.length);
+		}
+		Object read(Decoder d) throws IOException {
+			return readInto(d, null);
+		}
+		Object readInto(Decoder d, Object old) throws IOException {
+			int length = r.readLength(d.in);
+			if(d.deliver(byte[].class, length))return null;
+			return d.in.readBytes(length, old instanceof byte[] ? (byte[])old : null);
+		}
+		void skip(Decoder d) throws IOException {
+			d.in.skip((long)r.readLength(d.in) * 1);
+		}
+	}
+
+	static class BooleanArrayCodec extends TypeCodec {
+		BooleanArrayCodec(int id, Registry r) {
+			super(id, boolean[].class, r);
+		}
+		void write(Object o, Encoder e) {
+			boolean[] v = (boolean[])o;
+			r.writeLength(v.length, e.out);
+			e.out.writeBooleans(v, 0, v.length);
+		}
+		Object read(Decoder d) throws IOException {
+			return readInto(d, null);
+		}
+		Object readInto(Decoder d, Object old) throws IOException {
+			int length = r.readLength(d.in);
+			d.in.requireBlock(length, 1);
+			boolean[] v = old instanceof boolean[] && ((boolean[])old).length == length ? (boolean[])old : new boolean[length];
+			d.in.readBooleans(v, 0, length);
+			return v;
+		}
+		void skip(Decoder d) throws IOException {
+			d.in.skip((long)r.readLength(d.in) * 1);
+		}
+	}
+
+	static class ShortArrayCodec extends TypeCodec {
+		ShortArrayCodec(int id, Registry r) {
+			super(id, short[].class, r);
+		}
+		void write(Object o, Encoder e) {
+			short[] v = (short[])o;
+			r.writeLength(v.length, e.out);
+			e.out.writeShorts(v, 0, v.length);
+		}
+		Object read(Decoder d) throws IOException {
+			return readInto(d, null);
+		}
+		Object readInto(Decoder d, Object old) throws IOException {
+			int length = r.readLength(d.in);
+			d.in.requireBlock(length, 2);
+			short[] v = old instanceof short[] && ((short[])old).length == length ? (short[])old : new short[length];
+			d.in.readShorts(v, 0, length);
+			return v;
+		}
+		void skip(Decoder d) throws IOException {
+			d.in.skip((long)r.readLength(d.in) * 2);
+		}
+	}
+
+	static class IntArrayCodec extends TypeCodec {
+		IntArrayCodec(int id, Registry r) {
+			super(id, int[].class, r);
+		}
+		void write(Object o, Encoder e) {
+			int[] v = (int[])o;
+			r.writeLength(v.length, e.out);
+			e.out.writeInts(v, 0, v.length);
+		}
+		Object read(Decoder d) throws IOException {
+			return readInto(d, null);
+		}
+		Object readInto(Decoder d, Object old) throws IOException {
+			int length = r.readLength(d.in);
+			d.in.requireBlock(length, 4);
+			int[] v = old instanceof int[] && ((int[])old).length == length ? (int[])old : new int[length];
+			d.in.readInts(v, 0, length);
+			return v;
+		}
+		void skip(Decoder d) throws IOException {
+			d.in.skip((long)r.readLength(d.in) * 4);
+		}
+	}
+
+	static class LongArrayCodec extends TypeCodec {
+		LongArrayCodec(int id, Registry r) {
+			super(id, long[].class, r);
+		}
+		void write(Object o, Encoder e) {
+			long[] v = (long[])o;
+			r.writeLength(v.length, e.out);
+			e.out.writeLongs(v, 0, v.length);
+		}
+		Object read(Decoder d) throws IOException {
+			return readInto(d, null);
+		}
+		Object readInto(Decoder d, Object old) throws IOException {
+			int length = r.readLength(d.in);
+			d.in.requireBlock(length, 8);
+			long[] v = old instanceof long[] && ((long[])old).length == length ? (long[])old : new long[length];
+			d.in.readLongs(v, 0, length);
+			return v;
+		}
+		void skip(Decoder d) throws IOException {
+			d.in.skip((long)r.readLength(d.in) * 8);
+		}
+	}
+
+	static class FloatArrayCodec extends TypeCodec {
+		FloatArrayCodec(int id, Registry r) {
+			super(id, float[].class, r);
+		}
+		void write(Object o, Encoder e) {
+			float[] v = (float[])o;
+			r.writeLength(v.length, e.out);
+			e.out.writeFloats(v, 0, v.length);
+		}
+		Object read(Decoder d) throws IOException {
+			return readInto(d, null);
+		}
+		Object readInto(Decoder d, Object old) throws IOException {
+			int length = r.readLength(d.in);
+			d.in.requireBlock(length, 4);
+			float[] v = old instanceof float[] && ((float[])old).length == length ? (float[])old : new float[length];
+			d.in.readFloats(v, 0, length);
+			return v;
+		}
+		void skip(Decoder d) throws IOException {
+			d.in.skip((long)r.readLength(d.in) * 4);
+		}
+	}
+
+	static class DoubleArrayCodec extends TypeCodec {
+		DoubleArrayCodec(int id, Registry r) {
+			super(id, double[].class, r);
+		}
+		void write(Object o, Encoder e) {
+			double[] v = (double[])o;
+			r.writeLength(v.length, e.out);
+			e.out.writeDoubles(v, 0, v.length);
+		}
+		Object read(Decoder d) throws IOException {
+			return readInto(d, null);
+		}
+		Object readInto(Decoder d, Object old) throws IOException {
+			int length = r.readLength(d.in);
+			d.in.requireBlock(length, 8);
+			double[] v = old instanceof double[] && ((double[])old).length == length ? (double[])old : new double[length];
+			d.in.readDoubles(v, 0, length);
+			return v;
+		}
+		void skip(Decoder d) throws IOException {
+			d.in.skip((long)r.readLength(d.in) * 8);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.mariuspaavel.javaserializationlib;
+
+import java.nio.charset.Charset;
+
+/**
+*Encodes and decodes strings as UTF-8 regardless of the platform default charset.
+* Strings are encoded straight into the output buffer after their length has been counted. Text that is pure ASCII, which most
+* field values are, takes a fast path on both sides that copies one byte per char without going through a charset coder.
+* Unpaired surrogates are written as '?' and malformed input is decoded to U+FFFD, the same as String.getBytes and new String do.
+*/
+final class Utf8 {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+	private Utf8() {}
+
+	/**
+	*Count the number of bytes the UTF-8 form of a string takes.
+	*/
+	static int length(String s) {
+		int n = s.length();
+		int i = 0;
+		while(i < n && s.charAt(i) < 0x80)i++;
+		if(i == n)return n;
+		long length = i;
+		for(; i < n; i++) {
+			char c = s.charAt(i);
+			if(c < 0x80)length++;
+			else if(c < 0x800)length += 2;
+			else if(Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			}
+			else if(Character.isSurrogate(c))length++;
+			else length += 3;
+		}
+		if(length > Integer.MAX_VALUE)throw new SerializationException("String is too large to be serialized");
+		return (int)length;
+	}
+
+	/**
+	*Encode a string into an array that has room for length(s) bytes starting at off.
+	* @return The index after the last written byte.
+	*/
+	static int encode(String s, byte[] dst, int off) {
+		return encode(s, 0, s.length(), dst, off);
+	}
+
+	/**
+	*Encode the chars from index from to index to of a string. A surrogate pair must not be split between two calls.
+	* @return The index after the last written byte.
+	*/
+	static int encode(String s, int from, int to, byte[] dst, int off) {
+		int n = to;
+		int i = from;
+		//ASCII fast path
+		while(i < n) {
+			char c = s.charAt(i);
+			if(c >= 0x80)break;
+			dst[off++] = (byte)c;
+			i++;
+		}
+		for(; i < n; i++) {
+			char c = s.charAt(i);
+			if(c < 0x80) {
+				dst[off++] = (byte)c;
+			}
+			else if(c < 0x800) {
+				dst[off++] = (byte)(0xc0 | c >> 6);
+				dst[off++] = (byte)(0x80 | c & 0x3f);
+			}
+			else if(Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				dst[off++] = (byte)(0xf0 | cp >> 18);
+				dst[off++] = (byte)(0x80 | cp >> 12 & 0x3f);
+				dst[off++] = (byte)(0x80 | cp >> 6 & 0x3f);
+				dst[off++] = (byte)(0x80 | cp & 0x3f);
+			}
+			else if(Character.isSurrogate(c)) {
+				dst[off++] = (byte)'?';
+			}
+			else {
+				dst[off++] = (byte)(0xe0 | c >> 12);
+				dst[off++] = (byte)(0x80 | c >> 6 & 0x3f);
+				dst[off++] = (byte)(0x80 | c & 0x3f);
+			}
+		}
+		return off;
+	}
+
+	/**
+	*Decode len bytes of UTF-8 starting at off.
+	*/
+	static String decode(byte[] src, int off, int len) {
+		int end = off + len;
+		for(int i = off; i < end; i++) {
+			if(src[i] < 0)return new String(src, off, len, UTF8);
+		}
+		//ASCII is a subset of Latin-1, which decodes by widening every byte
+		return new String(src, off, len, LATIN1);
+	}
+}
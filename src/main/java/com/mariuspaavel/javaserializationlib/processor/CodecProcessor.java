@@ -0,0 +1,137 @@
+package com.mariuspaavel.javaserializationlib.processor;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+import java.util.*;
+import java.io.*;
+
+/**
+*Generates a GeneratedCodec for every class that has fields with the @S annotation.
+* The codec of class pkg.Outer$Inner is called pkg.Outer$Inner_SCodec, the Manager finds it by that name when the class is registrated.
+* Codecs are only generated for classes whose fields can be accessed from the same package: classes that are private or inner 
+* classes, or that have private, final or static @S fields, char fields or no accessible no-argument constructor, are skipped
+* with a note and are serialized through reflection.
+*/
+@SupportedAnnotationTypes("com.mariuspaavel.javaserializationlib.S")
+public class CodecProcessor extends AbstractProcessor {
+
+	private static final String S = "com.mariuspaavel.javaserializationlib.S";
+	private static final String SUFFIX = "_SCodec";
+	//The primitive types that FieldWriter and FieldReader have methods for
+	private static final Set<TypeKind> PRIMITIVES = EnumSet.of(TypeKind.BOOLEAN, TypeKind.BYTE, TypeKind.SHORT, TypeKind.INT, TypeKind.LONG, TypeKind.FLOAT, TypeKind.DOUBLE);
+
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for(TypeElement annotation : annotations) {
+			if(!annotation.getQualifiedName().contentEquals(S))continue;
+			TreeMap<String, TypeElement> types = new TreeMap<String, TypeElement>();
+			for(Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+				Element enclosing = e.getEnclosingElement();
+				if(e.getKind() == ElementKind.FIELD && enclosing instanceof TypeElement) {
+					TypeElement type = (TypeElement)enclosing;
+					types.put(type.getQualifiedName().toString(), type);
+				}
+			}
+			for(TypeElement type : types.values()) {
+				generate(type, annotation);
+			}
+		}
+		return false;
+	}
+
+	private void generate(TypeElement type, TypeElement annotation) {
+		String reason = unsupported(type);
+		TreeMap<String, VariableElement> fields = new TreeMap<String, VariableElement>();
+		for(Element e : type.getEnclosedElements()) {
+			if(e.getKind() != ElementKind.FIELD || !annotated(e, annotation))continue;
+			Set<Modifier> modifiers = e.getModifiers();
+			if(modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL) || modifiers.contains(Modifier.STATIC)) {
+				reason = String.format("field %s is private, final or static", e.getSimpleName());
+			}
+			TypeKind kind = e.asType().getKind();
+			if(kind.isPrimitive() && !PRIMITIVES.contains(kind))reason = String.format("field %s has the unsupported type %s", e.getSimpleName(), e.asType());
+			fields.put(e.getSimpleName().toString(), (VariableElement)e);
+		}
+		if(reason != null) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, String.format("No codec generated for %s: %s", type.getQualifiedName(), reason), type);
+			return;
+		}
+
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+		String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + SUFFIX;
+		String typeName = type.getQualifiedName().toString();
+
+		StringBuilder signature = new StringBuilder();
+		StringBuilder write = new StringBuilder();
+		StringBuilder read = new StringBuilder();
+		for(VariableElement field : fields.values()) {
+			String name = field.getSimpleName().toString();
+			TypeMirror fieldType = field.asType();
+			String kind = fieldType.getKind().isPrimitive() ? fieldType.getKind().toString().toLowerCase(Locale.ROOT) : "object";
+			if(signature.length() > 0)signature.append(',');
+			signature.append(name).append(':').append(kind);
+			if(kind.equals("object")) {
+				String erasure = processingEnv.getTypeUtils().erasure(fieldType).toString();
+				write.append(String.format("\t\tout.writeObject(o.%s);%n", name));
+				read.append(String.format("\t\to.%s = (%s)in.readObject(o.%s);%n", name, erasure, name));
+			}
+			else {
+				String method = Character.toUpperCase(kind.charAt(0)) + kind.substring(1);
+				write.append(String.format("\t\tout.write%s(o.%s);%n", method, name));
+				read.append(String.format("\t\to.%s = in.read%s();%n", name, method));
+			}
+		}
+
+		try(PrintWriter pw = new PrintWriter(processingEnv.getFiler().createSourceFile(packageName.isEmpty() ? simpleName : packageName + "." + simpleName, type).openWriter())) {
+			if(!packageName.isEmpty())pw.printf("package %s;%n%n", packageName);
+			pw.printf("/**%n*The codec of %s, generated from its @S fields.%n*/%n", typeName);
+			pw.printf("@SuppressWarnings({\"unchecked\", \"rawtypes\"})%n");
+			pw.printf("public final class %s extends com.mariuspaavel.javaserializationlib.GeneratedCodec {%n%n", simpleName);
+			pw.printf("\tpublic String fields() {%n\t\treturn \"%s\";%n\t}%n%n", signature);
+			pw.printf("\tpublic Object newInstance() {%n\t\treturn new %s();%n\t}%n%n", typeName);
+			pw.printf("\tpublic void write(Object object, com.mariuspaavel.javaserializationlib.FieldWriter out) throws Throwable {%n");
+			pw.printf("\t\t%s o = (%s)object;%n%s\t}%n%n", typeName, typeName, write);
+			pw.printf("\tpublic void read(Object object, com.mariuspaavel.javaserializationlib.FieldReader in) throws Throwable {%n");
+			pw.printf("\t\t%s o = (%s)object;%n%s\t}%n}%n", typeName, typeName, read);
+		}catch(IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format("Cannot generate the codec of %s: %s", typeName, e.getMessage()), type);
+		}
+	}
+
+	/**
+	*Get the reason why the generated codec couldn't access a class, or null if it can.
+	*/
+	private String unsupported(TypeElement type) {
+		if(type.getKind() != ElementKind.CLASS)return "it is not a class";
+		if(type.getModifiers().contains(Modifier.ABSTRACT))return "it is abstract";
+		for(Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+			NestingKind nesting = ((TypeElement)e).getNestingKind();
+			if(e.getModifiers().contains(Modifier.PRIVATE))return "it is private";
+			if(nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS)return "it is a local class";
+			if(nesting == NestingKind.MEMBER && !e.getModifiers().contains(Modifier.STATIC))return "it is an inner class";
+		}
+		boolean hasConstructors = false;
+		for(Element e : type.getEnclosedElements()) {
+			if(e.getKind() != ElementKind.CONSTRUCTOR)continue;
+			hasConstructors = true;
+			if(((ExecutableElement)e).getParameters().isEmpty() && !e.getModifiers().contains(Modifier.PRIVATE))return null;
+		}
+		return hasConstructors ? "it has no accessible no-argument constructor" : null;
+	}
+
+	private static boolean annotated(Element e, TypeElement annotation) {
+		for(AnnotationMirror mirror : e.getAnnotationMirrors()) {
+			if(mirror.getAnnotationType().asElement().equals(annotation))return true;
+		}
+		return false;
+	}
+}